@@ -0,0 +1,36 @@
+package twitter.bench;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks with the gc profiler, so that the allocation rate per operation is
+ * reported next to the time, and writes the results to {@code jmh-result.json}.
+ * {@code mvn package} in the {@code jmh} directory builds the benchmarks together with the
+ * classes of {@code src} into {@code target/benchmarks.jar}, whose main class this is. The
+ * arguments are regular expressions of the benchmarks to run, all of them if none is given, for
+ * example {@code TweetBenchmark} or {@code DatabaseOPBenchmark.getHomeTM}. For the usual JMH
+ * command line options, run {@code org.openjdk.jmh.Main} from the same jar instead.
+ */
+public class BenchmarkRunner {
+
+  public static void main(String[] args) throws RunnerException {
+    OptionsBuilder builder = new OptionsBuilder();
+    if (args.length == 0) {
+      builder.include("twitter\\.bench\\..*");
+    }
+    for (String pattern : args) {
+      builder.include(pattern);
+    }
+    Options options = builder
+        .addProfiler(GCProfiler.class)
+        .resultFormat(ResultFormatType.JSON)
+        .result("jmh-result.json")
+        .build();
+    new Runner(options).run();
+  }
+}
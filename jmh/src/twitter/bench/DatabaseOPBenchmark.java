@@ -0,0 +1,228 @@
+package twitter.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import twitter.database.DatabaseOP;
+import twitter.database.DatasetFormat;
+import twitter.database.InMemoryDatabaseOPImpl;
+import twitter.database.MySQLDatabaseOP;
+import twitter.database.MySQLDatabaseOPImpl;
+import twitter.database.RedisDBOPImplStrategy1;
+import twitter.database.RedisDBOPImplStrategy2;
+import twitter.database.RedisDBOPImplStrategy3;
+import twitter.database.RedisDBOPImplStrategy4;
+import twitter.database.RedisTwitterDatabaseOP;
+import twitter.database.Tweet;
+import twitter.util.TwitterUtil;
+import twitter.util.ZipfDistribution;
+
+/**
+ * Macrobenchmarks of posting a tweet and of reading a home timeline with each {@link DatabaseOP}.
+ * The Redis strategies need a server on localhost and the MySQL one a database reachable at
+ * {@code connectionPath}; the in memory one runs without any server. Authors are drawn with the
+ * given Zipf skew over the same ranks as the followees, so the most followed users also tweet the
+ * most. Readers are drawn with the same skew but their ranks are scattered over the ids, so the
+ * busiest readers are not the most followed users.
+ * Reads and writes use separate databases loaded with the same seeded dataset: the one written
+ * to is reset and loaded again before every iteration, so that no iteration runs against the
+ * tweets added by the previous ones, and the one read from is never written to.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@Threads(1)
+public class DatabaseOPBenchmark {
+
+  /**
+   * A database of the benchmarked strategy and the dataset it is loaded with.
+   */
+  @State(Scope.Benchmark)
+  public abstract static class Store {
+
+    @Param({"inmemory", "strategy1", "strategy2", "strategy3", "strategy4", "mysql"})
+    public String strategy;
+
+    @Param("jdbc:mysql://localhost:3306/twitter?user=root&rewriteBatchedStatements=true")
+    public String connectionPath;
+
+    @Param("10000")
+    public int numUsers;
+
+    @Param("20")
+    public int numFollowees;
+
+    @Param("100000")
+    public int numTweets;
+
+    @Param({"0", "1.0"})
+    public double skew;
+
+    @Param("10")
+    public int numOfTweetsInHomeTM;
+
+    DatabaseOP op;
+    ZipfDistribution users;
+    SplittableRandom random;
+    File follows;
+    File tweets;
+
+    /**
+     * Connects to the database and generates the dataset.
+     */
+    void open() throws IOException {
+      this.op = this.create();
+      this.follows = File.createTempFile("follows", ".bin");
+      this.tweets = File.createTempFile("tweets", ".bin");
+      TwitterUtil util = new TwitterUtil();
+      util.setSeed(42);
+      util.setFormat(DatasetFormat.BINARY);
+      util.setAuthorSkew(this.skew);
+      util.setFollowerSkew(this.skew);
+      util.buildFollowTable(1, this.numUsers, this.numFollowees, this.follows.getPath());
+      util.buildTweets(this.numTweets, this.numUsers, this.tweets.getPath());
+      this.users = new ZipfDistribution(this.numUsers, this.skew);
+      this.random = new SplittableRandom(42);
+    }
+
+    /**
+     * Empties the database and loads the dataset into it.
+     */
+    void load() {
+      this.op.resetDatabase();
+      this.op.addFollowers(this.follows.getPath());
+      if (this.op instanceof RedisTwitterDatabaseOP) {
+        ((RedisTwitterDatabaseOP) this.op).addTweets(this.tweets.getPath(), true);
+      }
+      else if (this.op instanceof InMemoryDatabaseOPImpl) {
+        ((InMemoryDatabaseOPImpl) this.op).addTweets(this.tweets.getPath(), true);
+      }
+      else {
+        this.op.addTweets(this.tweets.getPath());
+      }
+    }
+
+    /**
+     * Deletes the dataset and closes the connection to the database.
+     */
+    void close() throws IOException {
+      Files.deleteIfExists(this.follows.toPath());
+      Files.deleteIfExists(this.tweets.toPath());
+      if (this.op instanceof RedisTwitterDatabaseOP) {
+        ((RedisTwitterDatabaseOP) this.op).closeConnection();
+      }
+      else if (this.op instanceof MySQLDatabaseOP) {
+        ((MySQLDatabaseOP) this.op).closeConnection();
+      }
+    }
+
+    /**
+     * Creates the database operations of the benchmarked strategy, connected if it needs to be.
+     *
+     * @return the database operations.
+     */
+    private DatabaseOP create() {
+      switch (this.strategy) {
+        case "inmemory":
+          return new InMemoryDatabaseOPImpl();
+        case "strategy1":
+          return new RedisDBOPImplStrategy1("yyyy-MM-dd HH:mm:ss");
+        case "strategy2":
+          return new RedisDBOPImplStrategy2("yyyy-MM-dd HH:mm:ss");
+        case "strategy3":
+          return new RedisDBOPImplStrategy3("yyyy-MM-dd HH:mm:ss");
+        case "strategy4":
+          return new RedisDBOPImplStrategy4("yyyy-MM-dd HH:mm:ss");
+        case "mysql":
+          MySQLDatabaseOP mysql = new MySQLDatabaseOPImpl();
+          mysql.connect("com.mysql.cj.jdbc.Driver", this.connectionPath);
+          return mysql;
+        default:
+          throw new IllegalArgumentException("Unknown strategy " + this.strategy);
+      }
+    }
+  }
+
+  /**
+   * The database written to, loaded again before every iteration.
+   */
+  @State(Scope.Benchmark)
+  public static class Writes extends Store {
+
+    private String message;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+      this.open();
+      this.message = "Posting to every follower is what makes a write expensive with fan-out";
+    }
+
+    @Setup(Level.Iteration)
+    public void reload() {
+      this.load();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+      this.close();
+    }
+  }
+
+  /**
+   * The database read from, loaded once.
+   */
+  @State(Scope.Benchmark)
+  public static class Reads extends Store {
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+      this.open();
+      this.load();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+      this.close();
+    }
+  }
+
+  @Benchmark
+  public void addTweet(Writes store) {
+    String userId = String.valueOf(store.users.sample(store.random));
+    Tweet t = new Tweet(userId, System.currentTimeMillis(), store.message);
+    if (store.op instanceof RedisTwitterDatabaseOP) {
+      ((RedisTwitterDatabaseOP) store.op).addTweet(t, true);
+    }
+    else if (store.op instanceof InMemoryDatabaseOPImpl) {
+      ((InMemoryDatabaseOPImpl) store.op).addTweet(t, true);
+    }
+    else {
+      store.op.addTweet(t);
+    }
+  }
+
+  @Benchmark
+  public List<Tweet> getHomeTM(Reads store) {
+    String userId = String.valueOf(store.users.scatter(store.users.sample(store.random)));
+    return store.op.getHomeTM(userId, store.numOfTweetsInHomeTM);
+  }
+}
@@ -0,0 +1,87 @@
+package twitter.bench;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import twitter.database.DatasetFormat;
+import twitter.database.DatasetReader;
+import twitter.database.Tweet;
+import twitter.util.TwitterUtil;
+
+/**
+ * Microbenchmarks of parsing the tweet datasets: a single json record, as every loader parses
+ * it, and a whole file of tweets in each {@link DatasetFormat}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ParsingBenchmark {
+
+  @Param({"JSON", "NDJSON", "BINARY"})
+  public DatasetFormat format;
+
+  @Param("10000")
+  public int numTweets;
+
+  private String record;
+  private File dataset;
+
+  @Setup
+  public void setUp() throws IOException {
+    StringWriter json = new StringWriter();
+    JsonWriter writer = new JsonWriter(json);
+    writer.beginObject();
+    writer.name("user_id").value("12345");
+    writer.name("datetime").value(1546300800000L);
+    writer.name("message").value("Reading the home timeline of a user should not allocate much");
+    writer.endObject();
+    writer.close();
+    this.record = json.toString();
+
+    this.dataset = File.createTempFile("tweets", "." + this.format.name().toLowerCase());
+    TwitterUtil util = new TwitterUtil();
+    util.setSeed(42);
+    util.setFormat(this.format);
+    util.buildTweets(this.numTweets, 1000, this.dataset.getPath());
+  }
+
+  @TearDown
+  public void tearDown() throws IOException {
+    Files.deleteIfExists(this.dataset.toPath());
+  }
+
+  @Benchmark
+  public Tweet parseRecord() throws IOException {
+    return DatasetReader.readTweet(new JsonReader(new StringReader(this.record)));
+  }
+
+  @Benchmark
+  public void readDataset(Blackhole blackhole) throws IOException {
+    try (DatasetReader reader = new DatasetReader(this.dataset.getPath())) {
+      for (Tweet t = reader.nextTweet(); t != null; t = reader.nextTweet()) {
+        blackhole.consume(t);
+      }
+    }
+  }
+}
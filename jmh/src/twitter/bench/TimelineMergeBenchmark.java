@@ -0,0 +1,94 @@
+package twitter.bench;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import redis.clients.jedis.Tuple;
+import twitter.database.RedisDBOPImplStrategy1;
+
+/**
+ * Microbenchmarks of the merge of the followee timelines read by strategy 1: the bounded
+ * min-heap used by the pipelined read, and sorting all the candidates as the sequential read
+ * does. No Redis server is needed, the candidates are generated in memory.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class TimelineMergeBenchmark {
+
+  @Param({"20", "200", "2000"})
+  public int numFollowees;
+
+  @Param({"10", "100"})
+  public int numOfTweets;
+
+  private List<Set<Tuple>> candidateSets;
+  private Merger merger;
+
+  /**
+   * Exposes the merge of strategy 1. Creating it does not connect to Redis.
+   */
+  private static class Merger extends RedisDBOPImplStrategy1 {
+
+    Merger() {
+      super("yyyy-MM-dd HH:mm:ss");
+    }
+
+    String[] merge(List<Set<Tuple>> candidateSets, int numOfTweets) {
+      return this.mostRecentKeys(candidateSets, numOfTweets);
+    }
+  }
+
+  @Setup
+  public void setUp() {
+    SplittableRandom random = new SplittableRandom(42);
+    this.candidateSets = new ArrayList<>(this.numFollowees);
+    int key = 0;
+    for (int i = 0; i < this.numFollowees; i++) {
+      Set<Tuple> candidates = new HashSet<>();
+      for (int j = 0; j < this.numOfTweets; j++) {
+        double score = 1546300800000L + random.nextLong(31536000000L);
+        candidates.add(new Tuple("tweet:" + key++, score));
+      }
+      this.candidateSets.add(candidates);
+    }
+    this.merger = new Merger();
+  }
+
+  @Benchmark
+  public String[] heapMerge() {
+    return this.merger.merge(this.candidateSets, this.numOfTweets);
+  }
+
+  @Benchmark
+  public String[] sortMerge() {
+    List<Tuple> all = new ArrayList<>();
+    for (Set<Tuple> candidates : this.candidateSets) {
+      all.addAll(candidates);
+    }
+    all.sort(Comparator.comparingDouble(Tuple::getScore).reversed());
+    String[] keys = new String[Math.min(this.numOfTweets, all.size())];
+    for (int i = 0; i < keys.length; i++) {
+      keys[i] = all.get(i).getElement();
+    }
+    return keys;
+  }
+}
@@ -0,0 +1,66 @@
+package twitter.bench;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import twitter.database.Tweet;
+import twitter.database.TweetCodec;
+
+/**
+ * Microbenchmarks of building a {@link Tweet} and of the binary encoding that strategy 3 stores
+ * tweets with, for short, average and maximal messages.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class TweetBenchmark {
+
+  @Param({"0", "70", "139"})
+  public int messageLength;
+
+  private String userId;
+  private long timestamp;
+  private String message;
+  private Tweet tweet;
+  private byte[] encoded;
+
+  @Setup
+  public void setUp() {
+    StringBuilder text = new StringBuilder(this.messageLength);
+    for (int i = 0; i < this.messageLength; i++) {
+      text.append((char) ('a' + i % 26));
+    }
+    this.userId = "12345";
+    this.timestamp = 1546300800000L;
+    this.message = text.toString();
+    this.tweet = new Tweet(this.userId, this.timestamp, this.message);
+    this.encoded = TweetCodec.encode(this.tweet);
+  }
+
+  @Benchmark
+  public Tweet construct() {
+    return new Tweet(this.userId, this.timestamp, this.message);
+  }
+
+  @Benchmark
+  public byte[] encode() {
+    return TweetCodec.encode(this.tweet);
+  }
+
+  @Benchmark
+  public Tweet decode() {
+    return TweetCodec.decode(this.encoded);
+  }
+}
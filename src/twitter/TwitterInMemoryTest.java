@@ -0,0 +1,106 @@
+package twitter;
+
+import java.util.List;
+import java.util.Random;
+import twitter.database.InMemoryDatabaseOPImpl;
+import twitter.database.RedisDBOPImplStrategy2;
+import twitter.database.RedisTwitterDatabaseOP;
+import twitter.database.Tweet;
+
+/**
+ * Main class for testing the performance of reads and writes using the in-process database.
+ */
+public class TwitterInMemoryTest {
+  static int numUsers = 50000;
+  static long numTweets = 1000000;
+  static int numOfTweetsInHomeTM = 10;
+  static int numOfHomeTMToRetrieve = 1000000;
+
+  public static void main(String[] args) {
+    // Expects the files produced in TwitterRedisTest
+
+    testInMemory();
+
+    //compareWithStrat2();
+  }
+
+  static public void testInMemory() {
+    InMemoryDatabaseOPImpl db = new InMemoryDatabaseOPImpl();
+
+    db.addFollowers("follows.json");
+
+    // write performance test
+    long start = System.currentTimeMillis();
+    db.addTweets("tweets.json", true);
+    long end = System.currentTimeMillis();
+
+    double totalTime = (end - start) / 1000.0;
+    long avgWritesXsec = (long)(numTweets / totalTime);
+    System.out.format("Average writes per second = %d\n",avgWritesXsec);
+
+    // read perfomance test
+    long start2 = System.currentTimeMillis();
+    Random r = new Random();
+    for (int i = 0; i < numOfHomeTMToRetrieve; i++) {
+      String id = String.valueOf(r.nextInt(numUsers) + 1);
+      db.getHomeTM(id, numOfTweetsInHomeTM);
+    }
+    long end2 = System.currentTimeMillis();
+
+    double totalTime2 = (end2 - start2) / 1000.0;
+    long avgReadXsec = (long)(numOfHomeTMToRetrieve / totalTime2);
+    System.out.format("Average reads per second = %d\n", avgReadXsec);
+  }
+
+  /**
+   * Loads the same files into the in-process database and into strategy 2 and checks that both
+   * return the same home timelines for a sample of users. Datetimes are compared to the second,
+   * as strategy 2 stores them formatted without milliseconds.
+   */
+  static public void compareWithStrat2() {
+    InMemoryDatabaseOPImpl db = new InMemoryDatabaseOPImpl();
+    db.addFollowers("follows.json");
+    db.addTweets("tweets.json", true);
+
+    RedisTwitterDatabaseOP strat2 = new RedisDBOPImplStrategy2("yyyy-MM-dd HH:mm:ss");
+    strat2.resetDatabase();
+    strat2.addFollowers("follows.json");
+    strat2.addTweets("tweets.json", true);
+
+    int mismatches = 0;
+    Random r = new Random();
+    for (int i = 0; i < 1000; i++) {
+      String id = String.valueOf(r.nextInt(numUsers) + 1);
+      List<Tweet> expected = strat2.getHomeTM(id, numOfTweetsInHomeTM);
+      List<Tweet> actual = db.getHomeTM(id, numOfTweetsInHomeTM);
+      if (!sameTimeline(expected, actual)) {
+        mismatches++;
+      }
+    }
+    System.out.format("Home timelines different from strategy 2 = %d out of 1000\n", mismatches);
+    strat2.closeConnection();
+  }
+
+  /**
+   * Checks if two home timelines hold the same tweets in the same order.
+   *
+   * @param expected the first home timeline.
+   * @param actual the second home timeline.
+   * @return if they are the same.
+   */
+  static boolean sameTimeline(List<Tweet> expected, List<Tweet> actual) {
+    if (expected.size() != actual.size()) {
+      return false;
+    }
+    for (int i = 0; i < expected.size(); i++) {
+      Tweet e = expected.get(i);
+      Tweet a = actual.get(i);
+      if (!e.getUserId().equals(a.getUserId())
+          || !e.getMessage().equals(a.getMessage())
+          || Math.floorDiv(e.getTimestamp(), 1000) != Math.floorDiv(a.getTimestamp(), 1000)) {
+        return false;
+      }
+    }
+    return true;
+  }
+}
@@ -3,8 +3,17 @@ package twitter;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import twitter.database.IngestMetrics;
+import twitter.database.IngestPipeline;
 import twitter.database.MySQLDatabaseOP;
 import twitter.database.MySQLDatabaseOPImpl;
+import twitter.database.MySQLHomeTMMode;
+import twitter.database.MySQLTimelineStrategy;
 import twitter.database.Tweet;
 import twitter.util.TwitterUtil;
 
@@ -15,18 +24,23 @@ public class TwitterMySqlTest {
     int numOfUsers = 20000;
     int numFollowRelationXuser = 20;
     int limitHomeTM = 10;
+    int batchSize = 1000;
+    int[] numOfClients = {1, 2, 4, 8, 16};
+    long seed = 42;
     String password = null;
+    String connectionPath = "jdbc:mysql://localhost:3306/twitter?user=root&password=" + password;
 
-    // Code used to produce initial files.
+    // Code used to produce initial files. The same seed gives the same files on every run
 
     TwitterUtil util = new TwitterUtil();
+    util.setSeed(seed);
 
     util.buildTweets(numOfTweets, numOfUsers,"tweets.json");
     util.buildFollowTable(1, numOfUsers, numFollowRelationXuser, "follows.json");
-    MySQLDatabaseOP op = new MySQLDatabaseOPImpl();
+    MySQLDatabaseOP op = new MySQLDatabaseOPImpl(numOfClients[numOfClients.length - 1]);
 
-    op.connect("com.mysql.cj.jdbc.Driver",
-        "jdbc:mysql://localhost:3306/twitter?user=root&password=" + password);
+    op.connect("com.mysql.cj.jdbc.Driver", connectionPath);
+    op.setBatchSize(batchSize);
 
     op.addFollowers("follows.json");
 
@@ -50,6 +64,11 @@ public class TwitterMySqlTest {
         String.format("Tweets written per second is %d", (long)tweetXsec));
 
 
+    // Check that the home timeline query is backed by the indexes
+    for (String step : op.explainHomeTM("1", limitHomeTM)) {
+      System.out.println(step);
+    }
+
     // Start home timeline retrieval speed test
     Random r = new Random();
     List<Tweet> resultHomeTM = new ArrayList<>();
@@ -69,7 +88,143 @@ public class TwitterMySqlTest {
     System.out.format("Home timelines retrieved per second is %d\n", (long)homeTMXsec);
     System.out.format("Home timelines average size retrieved is %d\n", avgHomeTMsize);
 
+    // Start concurrent home timeline retrieval speed test
+    for (int clients : numOfClients) {
+      long readsXsec = measureConcurrentReads(op, clients, 1000, numOfUsers, limitHomeTM);
+      System.out.format("Home timelines retrieved per second with %d clients is %d\n",
+          clients, readsXsec);
+    }
+
+    // Compare the home timeline queries on the same data
+    for (MySQLHomeTMMode mode : MySQLHomeTMMode.values()) {
+      op.setHomeTMMode(mode);
+      for (String step : op.explainHomeTM("1", limitHomeTM)) {
+        System.out.println(step);
+      }
+      long readsXsec = measureConcurrentReads(op, 1, 1000, numOfUsers, limitHomeTM);
+      System.out.format("Home timelines retrieved per second with the %s query is %d\n",
+          mode.name().toLowerCase(), readsXsec);
+    }
 
     op.closeConnection();
+
+    compareTimelineStrategies(connectionPath, numOfTweets, numOfUsers, limitHomeTM);
+
+    compareBulkLoads(connectionPath, numOfTweets);
+
+    comparePipelineIngest(connectionPath);
+  }
+
+  /**
+   * Measures how the speed of adding the tweets of 'tweets.json' one at a time scales with the
+   * number of writers of the ingest pipeline, each one sharing the connection pool.
+   *
+   * @param connectionPath the connection path to the database.
+   */
+  static void comparePipelineIngest(String connectionPath) {
+    int[] numOfWriters = {1, 2, 4, 8};
+    MySQLDatabaseOP op = new MySQLDatabaseOPImpl(numOfWriters[numOfWriters.length - 1]);
+    op.connect("com.mysql.cj.jdbc.Driver", connectionPath);
+    for (int writers : numOfWriters) {
+      op.resetDatabase();
+      IngestMetrics metrics = IngestPipeline.addTweets("tweets.json", op, writers);
+      System.out.format("Pipeline ingest with %d writers:\n%s", writers, metrics);
+    }
+    op.closeConnection();
+  }
+
+  /**
+   * Compares the speed of loading 'follows.json' and 'tweets.json' into an empty database with
+   * batches of inserts and with {@code LOAD DATA LOCAL INFILE}.
+   *
+   * @param connectionPath the connection path to the database.
+   * @param numOfTweets the number of tweets in 'tweets.json'.
+   */
+  static void compareBulkLoads(String connectionPath, long numOfTweets) {
+    boolean[] localInfile = {false, true};
+    for (boolean enabled : localInfile) {
+      // The driver only allows the local infile load on connections opened after enabling it
+      MySQLDatabaseOP op = new MySQLDatabaseOPImpl();
+      op.setLocalInfileLoad(enabled);
+      op.connect("com.mysql.cj.jdbc.Driver", connectionPath);
+      op.resetDatabase();
+      long start = System.currentTimeMillis();
+      op.addFollowers("follows.json");
+      op.addTweets("tweets.json");
+      long end = System.currentTimeMillis();
+      double totalTime = (end - start) / 1000.0;
+      System.out.format("Setup with %s took %.1f seconds (%d tweets per second)\n",
+          enabled ? "load data" : "batched inserts", totalTime, (long)(numOfTweets / totalTime));
+      op.closeConnection();
+    }
+  }
+
+  /**
+   * Loads the same data with the pull and the push home timeline strategies and compares their
+   * tweet write speed and home timeline read speed.
+   *
+   * @param connectionPath the connection path to the database.
+   * @param numOfTweets the number of tweets in 'tweets.json'.
+   * @param numOfUsers the number of users in the database.
+   * @param limitHomeTM the number of tweets of each home timeline.
+   */
+  static void compareTimelineStrategies(String connectionPath, long numOfTweets, int numOfUsers,
+      int limitHomeTM) {
+    System.out.format("%-8s %15s %15s\n", "", "tweets/sec", "timelines/sec");
+    for (MySQLTimelineStrategy strategy : MySQLTimelineStrategy.values()) {
+      MySQLDatabaseOP op = new MySQLDatabaseOPImpl(strategy);
+      op.connect("com.mysql.cj.jdbc.Driver", connectionPath);
+      op.resetDatabase();
+      op.addFollowers("follows.json");
+
+      long start = System.currentTimeMillis();
+      op.addTweets("tweets.json");
+      long end = System.currentTimeMillis();
+      long tweetXsec = (long)(numOfTweets / ((end - start) / 1000.0));
+
+      long readsXsec = measureConcurrentReads(op, 1, 1000, numOfUsers, limitHomeTM);
+      System.out.format("%-8s %15d %15d\n", strategy.name().toLowerCase(), tweetXsec, readsXsec);
+      op.closeConnection();
+    }
+  }
+
+  /**
+   * Measures the home timelines read per second when a given number of threads share the same
+   * database instance.
+   *
+   * @param op the database to read from.
+   * @param numOfClients the number of threads reading at the same time.
+   * @param numOfReads the total number of home timelines to read.
+   * @param numOfUsers the number of users in the database.
+   * @param limitHomeTM the number of tweets of each home timeline.
+   * @return the average number of home timelines read per second.
+   */
+  static long measureConcurrentReads(MySQLDatabaseOP op, int numOfClients, int numOfReads,
+      int numOfUsers, int limitHomeTM) {
+    ExecutorService executor = Executors.newFixedThreadPool(numOfClients);
+    List<Future<?>> clients = new ArrayList<>();
+    long start = System.currentTimeMillis();
+    for (int i = 0; i < numOfClients; i++) {
+      int reads = numOfReads / numOfClients + (i < numOfReads % numOfClients ? 1 : 0);
+      clients.add(executor.submit(() -> {
+        for (int j = 0; j < reads; j++) {
+          String userId = String.valueOf(ThreadLocalRandom.current().nextInt(numOfUsers) + 1);
+          op.getHomeTM(userId, limitHomeTM);
+        }
+      }));
+    }
+    try {
+      for (Future<?> client : clients) {
+        client.get();
+      }
+    } catch (InterruptedException | ExecutionException e) {
+      throw new IllegalStateException(e.getMessage());
+    } finally {
+      executor.shutdown();
+    }
+    long end = System.currentTimeMillis();
+
+    double totalTime = (end - start) / 1000.0;
+    return (long)(numOfReads / totalTime);
   }
-}
\ No newline at end of file
+}
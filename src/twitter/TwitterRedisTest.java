@@ -1,10 +1,24 @@
 package twitter;
 
+import java.util.Arrays;
 import java.util.Random;
+import java.util.SplittableRandom;
+import twitter.database.AbstractRedisDBOPImpl;
+import twitter.database.DatabaseOP;
+import twitter.database.DatasetFormat;
+import twitter.database.FollowerCacheMode;
+import twitter.database.HomeTMCachingDatabaseOP;
+import twitter.database.IngestMetrics;
 import twitter.database.RedisDBOPImplStrategy1;
 import twitter.database.RedisDBOPImplStrategy2;
 import twitter.database.RedisDBOPImplStrategy3;
+import twitter.database.RedisDBOPImplStrategy4;
+import twitter.database.RedisExecutionMode;
 import twitter.database.RedisTwitterDatabaseOP;
+import twitter.database.Tweet;
+import twitter.database.TweetCache;
+import twitter.util.TwitterUtil;
+import twitter.util.ZipfDistribution;
 
 
 
@@ -17,13 +31,19 @@ public class TwitterRedisTest {
   static long numTweets = 1000000;
   static int numOfTweetsInHomeTM = 10;
   static int numOfHomeTMToRetrieve = 1000;
+  static int maxTimelineLength = 100;
+  static int tweetCacheSize = 100000;
+  static int numActiveUsers = 1000;
+  static long seed = 42;
+  static double zipfSkew = 1.0;
 
   public static void main(String[] args) {
     // datetime format "yyyy-MM-dd HH:mm:ss"
 
     /*
-    // Initial tweets and follow relations setup
+    // Initial tweets and follow relations setup, the same on every run with the same seed
     TwitterUtil util = new TwitterUtil();
+    util.setSeed(seed);
     util.buildFollowTable(1, numUsers, numOfFollowers, "follows.json");
     util.buildTweets(numTweets, numUsers, "tweets.json");
     System.out.println("Done initializing files");
@@ -35,6 +55,25 @@ public class TwitterRedisTest {
 
     testStrat3();
 
+    //testStrat4();
+
+    //compareFanOut();
+
+    //compareParallelIngest();
+
+    //compareStrat1Reads();
+
+    //compareTimelineTrimming();
+
+    //compareTweetCache();
+
+    //compareHomeTMCache();
+
+    //compareFollowerCache();
+
+    //compareDatasetParsing();
+
+    //compareSkewedWorkloads();
 
   }
 
@@ -81,7 +120,8 @@ public class TwitterRedisTest {
 
     // write performance test
     long start = System.currentTimeMillis();
-    strat2.addTweets("tweets.json", true);
+    strat2.addTweets("tweets.json", true, AbstractRedisDBOPImpl.DEFAULT_CHUNK_SIZE,
+        System.out::println);
     long end = System.currentTimeMillis();
 
     double totalTime = (end - start) / 1000.0;
@@ -112,7 +152,8 @@ public class TwitterRedisTest {
 
     // write performance test
     long start = System.currentTimeMillis();
-    strat3.addTweets("tweets.json", true);
+    strat3.addTweets("tweets.json", true, AbstractRedisDBOPImpl.DEFAULT_CHUNK_SIZE,
+        System.out::println);
     long end = System.currentTimeMillis();
 
     double totalTime = (end - start) / 1000.0;
@@ -133,4 +174,364 @@ public class TwitterRedisTest {
     System.out.format("Average reads per second = %d\n", avgReadXsec);
     strat3.closeConnection();
   }
+
+  static public void testStrat4() {
+    RedisTwitterDatabaseOP strat4 = new RedisDBOPImplStrategy4("yyyy-MM-dd HH:mm:ss");
+
+    strat4.resetDatabase();
+
+    strat4.addFollowers("follows.json");
+
+    // write performance test
+    long start = System.currentTimeMillis();
+    strat4.addTweets("tweets.json", true, AbstractRedisDBOPImpl.DEFAULT_CHUNK_SIZE,
+        System.out::println);
+    long end = System.currentTimeMillis();
+
+    double totalTime = (end - start) / 1000.0;
+    long avgWritesXsec = (long)(numTweets / totalTime);
+    System.out.format("Average writes per second = %d\n",avgWritesXsec);
+
+    // read perfomance test
+    long start2 = System.currentTimeMillis();
+    Random r = new Random();
+    for (int i = 0; i < numOfHomeTMToRetrieve; i++) {
+      String id = String.valueOf(r.nextInt(numUsers) + 1);
+      strat4.getHomeTM(id, numOfTweetsInHomeTM);
+    }
+    long end2 = System.currentTimeMillis();
+
+    double totalTime2 = (end2 - start2) / 1000.0;
+    long avgReadXsec = (long)(numOfHomeTMToRetrieve / totalTime2);
+    System.out.format("Average reads per second = %d\n", avgReadXsec);
+    strat4.closeConnection();
+  }
+
+  /**
+   * Compares the broadcast write speed of strategy 2 and 3 when every command is sent on its own,
+   * when the writes of each tweet are pipelined, when whole chunks of tweets are bulk loaded and
+   * when each tweet is added by a server side script.
+   */
+  static public void compareFanOut() {
+    System.out.format("%-12s %15s %15s %15s %15s\n",
+        "", "sequential", "pipelined", "bulk", "scripted");
+    RedisTwitterDatabaseOP strat2 = new RedisDBOPImplStrategy2("yyyy-MM-dd HH:mm:ss");
+    printFanOutRow("strategy 2", strat2);
+    strat2.closeConnection();
+
+    RedisTwitterDatabaseOP strat3 = new RedisDBOPImplStrategy3("yyyy-MM-dd HH:mm:ss");
+    printFanOutRow("strategy 3", strat3);
+    strat3.closeConnection();
+  }
+
+  /**
+   * Measures and prints the broadcast write speed of a given strategy in every execution mode.
+   *
+   * @param name the name of the strategy.
+   * @param op the strategy to measure.
+   */
+  static void printFanOutRow(String name, RedisTwitterDatabaseOP op) {
+    int bulk = AbstractRedisDBOPImpl.DEFAULT_CHUNK_SIZE;
+    long sequential = measureBroadcastWrites(op, RedisExecutionMode.SEQUENTIAL, 1);
+    long pipelined = measureBroadcastWrites(op, RedisExecutionMode.PIPELINED, 1);
+    long bulkPipelined = measureBroadcastWrites(op, RedisExecutionMode.PIPELINED, bulk);
+    long scripted = measureBroadcastWrites(op, RedisExecutionMode.SCRIPTED, 1);
+    System.out.format("%-12s %15d %15d %15d %15d\n",
+        name, sequential, pipelined, bulkPipelined, scripted);
+  }
+
+  /**
+   * Resets the database, loads the follow relations and measures the broadcast write speed of a
+   * given strategy in a given execution mode.
+   *
+   * @param op the strategy to measure.
+   * @param mode the execution mode to use.
+   * @param chunkSize the number of tweets written together.
+   * @return the average number of tweets written per second.
+   */
+  static long measureBroadcastWrites(RedisTwitterDatabaseOP op, RedisExecutionMode mode,
+      int chunkSize) {
+    op.resetDatabase();
+    op.addFollowers("follows.json");
+    op.setExecutionMode(mode);
+
+    long start = System.currentTimeMillis();
+    op.addTweets("tweets.json", true, chunkSize, null);
+    long end = System.currentTimeMillis();
+
+    double totalTime = (end - start) / 1000.0;
+    return (long)(numTweets / totalTime);
+  }
+
+  /**
+   * Converts 'tweets.json' into newline-delimited json and into the binary format, and compares
+   * the speed of parsing the json array with the speed of reading the parts of the other two
+   * files in parallel.
+   */
+  static public void compareDatasetParsing() {
+    TwitterUtil util = new TwitterUtil();
+    util.convertTweets("tweets.json", "tweets.ndjson", DatasetFormat.NDJSON);
+    util.convertTweets("tweets.json", "tweets.bin", DatasetFormat.BINARY);
+    System.out.format("Tweets parsed per second from the json array = %d\n",
+        util.getParseSpeed("tweets.json", 1));
+    int cores = Runtime.getRuntime().availableProcessors();
+    for (int threads = 1; threads <= cores; threads *= 2) {
+      System.out.format("Tweets parsed per second from ndjson with %d threads = %d\n", threads,
+          util.getParseSpeed("tweets.ndjson", threads));
+      System.out.format("Tweets read per second from binary with %d threads = %d\n", threads,
+          util.getParseSpeed("tweets.bin", threads));
+    }
+  }
+
+  /**
+   * Measures how the broadcast write speed of strategy 2 scales with the number of ingest workers,
+   * printing the throughput of the parser and of every writer.
+   */
+  static public void compareParallelIngest() {
+    RedisTwitterDatabaseOP strat2 = new RedisDBOPImplStrategy2("yyyy-MM-dd HH:mm:ss");
+    int[] numWorkers = {1, 2, 4, 8};
+    for (int workers : numWorkers) {
+      strat2.resetDatabase();
+      strat2.addFollowersParallel("follows.json", workers);
+
+      IngestMetrics metrics = strat2.addTweetsParallel("tweets.json", true, workers,
+          AbstractRedisDBOPImpl.DEFAULT_CHUNK_SIZE);
+      System.out.format("Broadcast ingest with %d workers:\n%s", workers, metrics);
+    }
+    strat2.closeConnection();
+  }
+
+  /**
+   * Compares the home timeline read speed of strategy 1 when every command is sent on its own,
+   * when the reads are pipelined and when the merge runs as a server side script.
+   * Expects the data of strategy 1 to be already loaded.
+   */
+  static public void compareStrat1Reads() {
+    RedisTwitterDatabaseOP strat1 = new RedisDBOPImplStrategy1("yyyy-MM-dd HH:mm:ss");
+    long sequential = measureReads(strat1, RedisExecutionMode.SEQUENTIAL);
+    long pipelined = measureReads(strat1, RedisExecutionMode.PIPELINED);
+    long scripted = measureReads(strat1, RedisExecutionMode.SCRIPTED);
+    System.out.format("%-12s %15s %15s %15s\n", "", "sequential", "pipelined", "scripted");
+    System.out.format("%-12s %15d %15d %15d\n", "strategy 1", sequential, pipelined, scripted);
+    strat1.closeConnection();
+  }
+
+  /**
+   * Measures the home timeline read speed of a given strategy in a given execution mode.
+   *
+   * @param op the strategy to measure.
+   * @param mode the execution mode to use.
+   * @return the average number of home timelines read per second.
+   */
+  static long measureReads(RedisTwitterDatabaseOP op, RedisExecutionMode mode) {
+    op.setExecutionMode(mode);
+    long start = System.currentTimeMillis();
+    Random r = new Random();
+    for (int i = 0; i < numOfHomeTMToRetrieve; i++) {
+      String id = String.valueOf(r.nextInt(numUsers) + 1);
+      op.getHomeTM(id, numOfTweetsInHomeTM);
+    }
+    long end = System.currentTimeMillis();
+
+    double totalTime = (end - start) / 1000.0;
+    return (long)(numOfHomeTMToRetrieve / totalTime);
+  }
+
+  /**
+   * Reports the memory used by strategy 2 and 3 with unbounded home timelines, the memory freed by
+   * trimming them afterwards, and the memory used when they are bounded during the load.
+   */
+  static public void compareTimelineTrimming() {
+    RedisTwitterDatabaseOP[] strategies = {
+        new RedisDBOPImplStrategy2("yyyy-MM-dd HH:mm:ss"),
+        new RedisDBOPImplStrategy3("yyyy-MM-dd HH:mm:ss")};
+    for (RedisTwitterDatabaseOP op : strategies) {
+      op.setMaxTimelineLength(0);
+      measureBroadcastWrites(op, RedisExecutionMode.PIPELINED,
+          AbstractRedisDBOPImpl.DEFAULT_CHUNK_SIZE);
+      long untrimmed = op.getUsedMemory();
+      op.setMaxTimelineLength(maxTimelineLength);
+      long saved = op.compactTimelines();
+
+      measureBroadcastWrites(op, RedisExecutionMode.PIPELINED,
+          AbstractRedisDBOPImpl.DEFAULT_CHUNK_SIZE);
+      long bounded = op.getUsedMemory();
+
+      System.out.format("%s with home timelines of at most %d tweets\n",
+          op.getClass().getSimpleName(), maxTimelineLength);
+      System.out.format("Memory used untrimmed = %d bytes\n", untrimmed);
+      System.out.format("Memory freed by compaction = %d bytes\n", saved);
+      System.out.format("Memory used when bounded on every broadcast = %d bytes\n", bounded);
+      op.closeConnection();
+    }
+  }
+
+  /**
+   * Compares the home timeline read speed of strategy 1 and 2 without and with the tweet cache.
+   * Expects the data of both strategies to be already loaded.
+   */
+  static public void compareTweetCache() {
+    RedisTwitterDatabaseOP[] strategies = {
+        new RedisDBOPImplStrategy1("yyyy-MM-dd HH:mm:ss"),
+        new RedisDBOPImplStrategy2("yyyy-MM-dd HH:mm:ss")};
+    System.out.format("%-28s %15s %15s %10s\n", "", "uncached", "cached", "hit rate");
+    for (RedisTwitterDatabaseOP op : strategies) {
+      op.setTweetCacheSize(0);
+      long uncached = measureReads(op, RedisExecutionMode.PIPELINED);
+      op.setTweetCacheSize(tweetCacheSize);
+      long cached = measureReads(op, RedisExecutionMode.PIPELINED);
+      TweetCache cache = op.getTweetCache();
+      double hitRate = (double) cache.getHits() / (cache.getHits() + cache.getMisses());
+      System.out.format("%-28s %15d %15d %9.1f%%\n",
+          op.getClass().getSimpleName(), uncached, cached, hitRate * 100);
+      op.closeConnection();
+    }
+  }
+
+  /**
+   * Compares the home timeline read speed of strategy 1 and 2 without and with the home timeline
+   * cache, when the reads come from a small set of active users and one operation out of ten is a
+   * new tweet. Expects the data of both strategies to be already loaded.
+   */
+  static public void compareHomeTMCache() {
+    RedisTwitterDatabaseOP[] strategies = {
+        new RedisDBOPImplStrategy1("yyyy-MM-dd HH:mm:ss"),
+        new RedisDBOPImplStrategy2("yyyy-MM-dd HH:mm:ss")};
+    System.out.format("%-28s %15s %15s\n", "", "uncached", "cached");
+    for (RedisTwitterDatabaseOP op : strategies) {
+      op.setExecutionMode(RedisExecutionMode.PIPELINED);
+      long uncached = measureActiveReads(op);
+      long cached = measureActiveReads(new HomeTMCachingDatabaseOP(op));
+      System.out.format("%-28s %15d %15d\n", op.getClass().getSimpleName(), uncached, cached);
+      op.closeConnection();
+    }
+  }
+
+  /**
+   * Reads home timelines of random active users, adding a tweet of a random user every ten reads.
+   *
+   * @param op the database to measure.
+   * @return the average number of home timelines read per second.
+   */
+  static long measureActiveReads(DatabaseOP op) {
+    Random r = new Random(42);
+    long start = System.currentTimeMillis();
+    for (int i = 0; i < numOfHomeTMToRetrieve; i++) {
+      if (i % 10 == 9) {
+        String author = String.valueOf(r.nextInt(numUsers) + 1);
+        op.addTweet(new Tweet(author, System.currentTimeMillis(), "cache test"));
+      }
+      String id = String.valueOf(r.nextInt(numActiveUsers) + 1);
+      op.getHomeTM(id, numOfTweetsInHomeTM);
+    }
+    long end = System.currentTimeMillis();
+
+    double totalTime = (end - start) / 1000.0;
+    return (long)(numOfHomeTMToRetrieve / totalTime);
+  }
+
+  /**
+   * Compares the bulk broadcast write speed of strategy 2 and 3 without a follower cache, caching
+   * the followers on demand and preloading them while loading the follow relations.
+   */
+  static public void compareFollowerCache() {
+    RedisTwitterDatabaseOP[] strategies = {
+        new RedisDBOPImplStrategy2("yyyy-MM-dd HH:mm:ss"),
+        new RedisDBOPImplStrategy3("yyyy-MM-dd HH:mm:ss")};
+    FollowerCacheMode[] modes = FollowerCacheMode.values();
+    System.out.format("%-28s", "");
+    for (FollowerCacheMode cacheMode : modes) {
+      System.out.format(" %15s", cacheMode.name().toLowerCase());
+    }
+    System.out.println();
+    for (RedisTwitterDatabaseOP op : strategies) {
+      System.out.format("%-28s", op.getClass().getSimpleName());
+      for (FollowerCacheMode cacheMode : modes) {
+        // Set before the load, so that the preloaded cache is filled by addFollowers
+        op.setFollowerCacheMode(cacheMode);
+        long writes = measureBroadcastWrites(op, RedisExecutionMode.PIPELINED,
+            AbstractRedisDBOPImpl.DEFAULT_CHUNK_SIZE);
+        System.out.format(" %15d", writes);
+      }
+      System.out.println();
+      op.setFollowerCacheMode(FollowerCacheMode.NONE);
+      op.closeConnection();
+    }
+  }
+
+  /**
+   * Compares strategies 1, 2 and 3 on the uniform files and on files where followees and authors
+   * are Zipf distributed, printing the broadcast write speed (the fan-out cost) and the latency
+   * percentiles of home timeline reads. Readers are drawn from a Zipf distribution too, so a few
+   * users read most of the timelines, as on a real network.
+   */
+  static public void compareSkewedWorkloads() {
+    TwitterUtil util = new TwitterUtil();
+    util.setSeed(seed);
+    util.setFormat(DatasetFormat.BINARY);
+    util.setFollowerSkew(zipfSkew);
+    util.setAuthorSkew(zipfSkew);
+    util.buildFollowTable(1, numUsers, numOfFollowers, "follows-zipf.bin");
+    util.buildTweets(numTweets, numUsers, "tweets-zipf.bin");
+
+    RedisTwitterDatabaseOP[] strategies = {
+        new RedisDBOPImplStrategy1("yyyy-MM-dd HH:mm:ss"),
+        new RedisDBOPImplStrategy2("yyyy-MM-dd HH:mm:ss"),
+        new RedisDBOPImplStrategy3("yyyy-MM-dd HH:mm:ss")};
+    String[][] datasets = {
+        {"uniform", "follows.json", "tweets.json"},
+        {"zipf", "follows-zipf.bin", "tweets-zipf.bin"}};
+    System.out.format("%-28s %-8s %12s %10s %10s %10s %10s\n", "", "dataset", "writes/sec",
+        "p50 us", "p99 us", "p99.9 us", "max us");
+    for (RedisTwitterDatabaseOP op : strategies) {
+      for (String[] dataset : datasets) {
+        op.resetDatabase();
+        op.addFollowers(dataset[1]);
+        long start = System.currentTimeMillis();
+        op.addTweets(dataset[2], true, AbstractRedisDBOPImpl.DEFAULT_CHUNK_SIZE, null);
+        long end = System.currentTimeMillis();
+        long writes = (long) (numTweets / ((end - start) / 1000.0));
+
+        long[] latencies = measureSkewedReads(op);
+        System.out.format("%-28s %-8s %12d %10d %10d %10d %10d\n",
+            op.getClass().getSimpleName(), dataset[0], writes, percentile(latencies, 50),
+            percentile(latencies, 99), percentile(latencies, 99.9),
+            latencies[latencies.length - 1] / 1000);
+      }
+      op.closeConnection();
+    }
+  }
+
+  /**
+   * Reads home timelines of readers drawn from a Zipf distribution. The ranks are spread over the
+   * user ids, so that the most active readers are not the most followed users.
+   *
+   * @param op the database to measure.
+   * @return the sorted latencies of the reads in nanoseconds.
+   */
+  static long[] measureSkewedReads(DatabaseOP op) {
+    ZipfDistribution readers = new ZipfDistribution(numUsers, zipfSkew);
+    SplittableRandom r = new SplittableRandom(seed);
+    long[] latencies = new long[numOfHomeTMToRetrieve];
+    for (int i = 0; i < numOfHomeTMToRetrieve; i++) {
+      String id = String.valueOf(readers.scatter(readers.sample(r)));
+      long start = System.nanoTime();
+      op.getHomeTM(id, numOfTweetsInHomeTM);
+      latencies[i] = System.nanoTime() - start;
+    }
+    Arrays.sort(latencies);
+    return latencies;
+  }
+
+  /**
+   * Gets a percentile of sorted latencies.
+   *
+   * @param latencies the sorted latencies in nanoseconds.
+   * @param percentile the percentile, from 0 to 100.
+   * @return the latency at the percentile in microseconds.
+   */
+  static long percentile(long[] latencies, double percentile) {
+    int index = (int) Math.ceil(percentile / 100 * latencies.length) - 1;
+    return latencies[Math.max(0, index)] / 1000;
+  }
 }
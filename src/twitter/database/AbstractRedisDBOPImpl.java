@@ -1,14 +1,34 @@
 package twitter.database;
 
-import com.google.gson.stream.JsonReader;
-import java.io.FileReader;
 import java.io.IOException;
-import java.text.SimpleDateFormat;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Calendar;
-import java.util.Date;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
+import java.util.function.LongConsumer;
+import java.util.function.Supplier;
 import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.JedisPoolConfig;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.ScanParams;
+import redis.clients.jedis.ScanResult;
+import redis.clients.jedis.Tuple;
+import redis.clients.jedis.exceptions.JedisNoScriptException;
 
 /**
  * Class that abstracts out the similarities between different strategies for implementing the
@@ -16,20 +36,288 @@ import redis.clients.jedis.Jedis;
  */
 public abstract class AbstractRedisDBOPImpl implements RedisTwitterDatabaseOP {
 
+  /**
+   * The number of tweets parsed and flushed together by {@code addTweets} when no chunk size is
+   * given.
+   */
+  public static final int DEFAULT_CHUNK_SIZE = 1000;
+
   protected final Jedis jedis;
-  protected final SimpleDateFormat sdf;
+  protected final DateTimeFormatter formatter;
+  protected final ZoneId zone;
+  protected RedisExecutionMode mode;
+  protected int maxTimelineLength;
+  protected TweetCache tweetCache;
+  protected FollowerCacheMode followerCacheMode;
+  protected String addTweetSha;
+  private final Map<String, Set<String>> followerCache;
 
   /**
    * Establishes a new connection to the local default Redis DB upon construction.
    * Sets up the {@code nextTweetId} index to start at 1.
    * Initializes the format of datetime stored in the database.
+   * Commands are pipelined by default, home timelines are unbounded and neither tweets nor
+   * followers are cached.
    */
   public AbstractRedisDBOPImpl(String datetimeFormat) {
     if (datetimeFormat == null) {
       throw new IllegalArgumentException("Given argument is null");
     }
     this.jedis = new Jedis("localhost");
-    this.sdf = new SimpleDateFormat(datetimeFormat);
+    this.zone = ZoneId.systemDefault();
+    this.formatter = DateTimeFormatter.ofPattern(datetimeFormat).withZone(this.zone);
+    this.mode = RedisExecutionMode.PIPELINED;
+    this.maxTimelineLength = 0;
+    this.followerCacheMode = FollowerCacheMode.NONE;
+    this.followerCache = new ConcurrentHashMap<>();
+  }
+
+  @Override
+  public void setExecutionMode(RedisExecutionMode mode) {
+    this.checkNulls(mode);
+    if (mode == RedisExecutionMode.SCRIPTED) {
+      this.loadScripts();
+    }
+    this.mode = mode;
+  }
+
+  @Override
+  public void setFollowerCacheMode(FollowerCacheMode mode) {
+    this.checkNulls(mode);
+    this.followerCache.clear();
+    this.followerCacheMode = mode;
+    if (mode == FollowerCacheMode.PRELOADED) {
+      this.preloadFollowers();
+    }
+  }
+
+  /**
+   * Loads the followers of every user into the follower cache, scanning the 'followers:(user_id)'
+   * keys and reading each page of sets with a single pipeline.
+   */
+  private void preloadFollowers() {
+    ScanParams params = new ScanParams().match("followers:*").count(1000);
+    String cursor = ScanParams.SCAN_POINTER_START;
+    do {
+      ScanResult<String> page = this.jedis.scan(cursor, params);
+      Pipeline pipeline = this.jedis.pipelined();
+      Map<String, Response<Set<String>>> sets = new HashMap<>();
+      for (String key : page.getResult()) {
+        sets.put(key.substring("followers:".length()), pipeline.smembers(key));
+      }
+      pipeline.sync();
+      for (Map.Entry<String, Response<Set<String>>> entry : sets.entrySet()) {
+        Set<String> followers = ConcurrentHashMap.newKeySet();
+        followers.addAll(entry.getValue().get());
+        this.followerCache.put(entry.getKey(), followers);
+      }
+      cursor = page.getCursor();
+    } while (!cursor.equals(ScanParams.SCAN_POINTER_START));
+  }
+
+  /**
+   * Gets the followers of a given user from the follower cache.
+   *
+   * @param userId the id of the user.
+   * @return the followers, or {@code null} if they have to be fetched from the DB.
+   */
+  protected Set<String> cachedFollowers(String userId) {
+    if (this.followerCacheMode == FollowerCacheMode.NONE) {
+      return null;
+    }
+    Set<String> followers = this.followerCache.get(userId);
+    // When preloaded, the cache holds every user with at least one follower
+    if (followers == null && this.followerCacheMode == FollowerCacheMode.PRELOADED) {
+      return Collections.emptySet();
+    }
+    return followers;
+  }
+
+  /**
+   * Caches the followers of a given user just fetched from the DB, if caching on demand.
+   *
+   * @param userId the id of the user.
+   * @param followers the followers of the user.
+   */
+  protected void cacheFollowers(String userId, Set<String> followers) {
+    if (this.followerCacheMode == FollowerCacheMode.ON_DEMAND) {
+      Set<String> copy = ConcurrentHashMap.newKeySet();
+      copy.addAll(followers);
+      this.followerCache.putIfAbsent(userId, copy);
+    }
+  }
+
+  /**
+   * Keeps the follower cache up to date with a follower-followee relation just written to the DB.
+   *
+   * @param followerId the id of the follower.
+   * @param followeeId the id of the followee.
+   */
+  protected void cacheFollower(String followerId, String followeeId) {
+    if (this.followerCacheMode == FollowerCacheMode.PRELOADED) {
+      this.followerCache.computeIfAbsent(followeeId, id -> ConcurrentHashMap.newKeySet())
+          .add(followerId);
+    }
+    else if (this.followerCacheMode == FollowerCacheMode.ON_DEMAND) {
+      Set<String> followers = this.followerCache.get(followeeId);
+      if (followers != null) {
+        followers.add(followerId);
+      }
+    }
+  }
+
+  @Override
+  public void setTweetCacheSize(int maxSize) {
+    if (maxSize < 0) {
+      throw new IllegalArgumentException("The size of the cache cannot be negative");
+    }
+    this.tweetCache = maxSize == 0 ? null : new TweetCache(maxSize);
+  }
+
+  @Override
+  public TweetCache getTweetCache() {
+    return this.tweetCache;
+  }
+
+  @Override
+  public void setMaxTimelineLength(int maxTimelineLength) {
+    if (maxTimelineLength < 0) {
+      throw new IllegalArgumentException("The max timeline length cannot be negative");
+    }
+    this.maxTimelineLength = maxTimelineLength;
+  }
+
+  /**
+   * Queues the insertion of a tweet into a home timeline into a pipeline. If the home timelines
+   * are bounded, also queues the removal of the oldest entries beyond the max length.
+   *
+   * @param pipeline the pipeline to queue the commands into.
+   * @param timelineKey the key of the home timeline, in the form 'hometl:(user_id)'.
+   * @param timeInMilliseconds the datetime of the tweet in milliseconds from epoch.
+   * @param member the value stored in the home timeline for the tweet.
+   */
+  protected void addToTimeline(Pipeline pipeline, String timelineKey, long timeInMilliseconds,
+      String member) {
+    pipeline.zadd(timelineKey, timeInMilliseconds, member);
+    if (this.maxTimelineLength > 0) {
+      pipeline.zremrangeByRank(timelineKey, 0, -(this.maxTimelineLength + 1));
+    }
+  }
+
+  @Override
+  public long compactTimelines() {
+    if (this.maxTimelineLength == 0) {
+      throw new IllegalStateException("The home timelines are unbounded");
+    }
+    long before = this.getUsedMemory();
+    ScanParams params = new ScanParams().match("hometl:*").count(1000);
+    String cursor = ScanParams.SCAN_POINTER_START;
+    do {
+      ScanResult<String> page = this.jedis.scan(cursor, params);
+      Pipeline pipeline = this.jedis.pipelined();
+      for (String key : page.getResult()) {
+        pipeline.zremrangeByRank(key, 0, -(this.maxTimelineLength + 1));
+      }
+      pipeline.sync();
+      cursor = page.getCursor();
+    } while (!cursor.equals(ScanParams.SCAN_POINTER_START));
+    return before - this.getUsedMemory();
+  }
+
+  @Override
+  public long getUsedMemory() {
+    String info = this.jedis.info("memory");
+    for (String line : info.split("\r?\n")) {
+      if (line.startsWith("used_memory:")) {
+        return Long.parseLong(line.substring("used_memory:".length()).trim());
+      }
+    }
+    throw new IllegalStateException("Redis did not report its used memory");
+  }
+
+  /**
+   * Gets the source of the Lua script that adds a tweet in {@code SCRIPTED} mode.
+   * The script receives 'nextTweetId' as its only key and as arguments the user id, the datetime
+   * formatted with the format given at construction, the message, the datetime in milliseconds
+   * from epoch, '1' if the tweet has to be broadcasted ('0' otherwise) and the max length of the
+   * home timelines ('0' if unbounded).
+   *
+   * @return the source of the script.
+   */
+  protected abstract String getAddTweetScript();
+
+  /**
+   * Loads the Lua scripts used in {@code SCRIPTED} mode into the Redis script cache.
+   */
+  protected void loadScripts() {
+    this.addTweetSha = this.jedis.scriptLoad(this.getAddTweetScript());
+  }
+
+  /**
+   * Calls a preloaded script through a given connection. If Redis no longer knows the script,
+   * as after a restart or a {@code SCRIPT FLUSH}, it is loaded again and called once more; its
+   * SHA only depends on its source, so the call itself does not change.
+   *
+   * @param connection the connection to call the script through.
+   * @param script the source of the script.
+   * @param call calls the script with {@code EVALSHA}.
+   * @param <T> the type of the reply.
+   * @return the reply of the script.
+   */
+  protected <T> T evalScript(Jedis connection, String script, Supplier<T> call) {
+    try {
+      return call.get();
+    } catch (JedisNoScriptException e) {
+      connection.scriptLoad(script);
+      return call.get();
+    }
+  }
+
+  /**
+   * Adds a tweet into the DB by calling the preloaded add tweet script through a given
+   * connection, which costs a single round trip including the broadcast.
+   *
+   * @param connection the connection to call the script through.
+   * @param t the tweet to be added.
+   * @param broadcast if it has to be broadcasted to the followers.
+   */
+  protected void addTweetScripted(Jedis connection, Tweet t, boolean broadcast) {
+    List<String> args = Arrays.asList(
+        t.getUserId(),
+        this.formatDatetime(t.getTimestamp()),
+        t.getMessage(),
+        String.valueOf(t.getTimestamp()),
+        broadcast ? "1" : "0",
+        String.valueOf(this.maxTimelineLength));
+    this.evalScript(connection, this.getAddTweetScript(), () ->
+        connection.evalsha(this.addTweetSha, Collections.singletonList("nextTweetId"), args));
+  }
+
+  /**
+   * Formats a given datetime with the format given at construction.
+   * The formatter is immutable, so this can be called from any thread.
+   *
+   * @param timestamp the datetime in milliseconds from epoch.
+   * @return the formatted datetime.
+   */
+  protected String formatDatetime(long timestamp) {
+    return this.formatter.format(Instant.ofEpochMilli(timestamp));
+  }
+
+  /**
+   * Parses a datetime formatted with {@code formatDatetime}.
+   *
+   * @param datetime the formatted datetime.
+   * @return the datetime in milliseconds from epoch.
+   * @throws IllegalStateException if the datetime is not in the format given at construction.
+   */
+  protected long parseDatetime(String datetime) {
+    try {
+      return LocalDateTime.parse(datetime, this.formatter).atZone(this.zone)
+          .toInstant().toEpochMilli();
+    } catch (DateTimeParseException e) {
+      throw new IllegalStateException("Malformed datetime in tweet: " + datetime);
+    }
   }
 
   /**
@@ -45,25 +333,193 @@ public abstract class AbstractRedisDBOPImpl implements RedisTwitterDatabaseOP {
   @Override
   abstract public void addTweet(Tweet t, boolean broadcast);
 
+  /**
+   * Queues all the commands that store a given tweet under a given key into a pipeline, including
+   * the insertion of the tweet into the home timeline of each of the given followers.
+   *
+   * @param pipeline the pipeline to queue the commands into.
+   * @param key the key of the tweet, in the form 'tweet:(int)'.
+   * @param t the tweet to be stored.
+   * @param followers the followers to broadcast the tweet to (empty if not broadcasting).
+   */
+  protected abstract void writeTweet(Pipeline pipeline, String key, Tweet t,
+      Set<String> followers);
+
+  /**
+   * Adds a tweet into the DB using two pipelines: the first one allocates the tweet id and fetches
+   * the followers of the author (unless they are cached), the second one sends all the writes at
+   * once. This makes the cost of a tweet two round trips regardless of the number of followers.
+   *
+   * @param t the tweet to be added.
+   * @param broadcast if it has to be broadcasted to the followers.
+   */
+  protected void addTweetPipelined(Tweet t, boolean broadcast) {
+    Pipeline pipeline = this.jedis.pipelined();
+    Response<Long> nextId = pipeline.incr("nextTweetId");
+    Set<String> targets = Collections.emptySet();
+    Response<Set<String>> followers = null;
+    if (broadcast) {
+      targets = this.cachedFollowers(t.getUserId());
+      if (targets == null) {
+        followers = pipeline.smembers("followers:" + t.getUserId());
+      }
+    }
+    pipeline.sync();
+    if (followers != null) {
+      targets = followers.get();
+      this.cacheFollowers(t.getUserId(), targets);
+    }
+
+    pipeline = this.jedis.pipelined();
+    String key = "tweet:" + nextId.get();
+    this.writeTweet(pipeline, key, t, targets);
+    pipeline.sync();
+  }
+
   @Override
   public void addTweets(String filePath, boolean broadcast) {
+    this.addTweets(filePath, broadcast, DEFAULT_CHUNK_SIZE, null);
+  }
+
+  @Override
+  public void addTweets(String filePath, boolean broadcast, int chunkSize, LongConsumer progress) {
     this.checkNulls(filePath);
-    try {
-      JsonReader reader = new JsonReader(new FileReader(filePath));
-      reader.beginArray();
-      int counter = 0;
-      while (reader.hasNext()) {
-        if (counter % 1000 == 0) { System.out.println(counter);}
-        this.addTweetHelp(reader, broadcast);
-        counter++;
-      }
-      reader.endArray();
-      reader.close();
+    if (chunkSize < 1) {
+      throw new IllegalArgumentException("The chunk size has to be bigger than 0");
+    }
+    try (DatasetReader reader = new DatasetReader(filePath)) {
+      List<Tweet> chunk = new ArrayList<>(chunkSize);
+      long counter = 0;
+      for (Tweet t = reader.nextTweet(); t != null; t = reader.nextTweet()) {
+        chunk.add(t);
+        if (chunk.size() == chunkSize) {
+          this.flushTweets(this.jedis, chunk, broadcast);
+          counter += chunk.size();
+          chunk.clear();
+          if (progress != null) {
+            progress.accept(counter);
+          }
+        }
+      }
+      if (!chunk.isEmpty()) {
+        this.flushTweets(this.jedis, chunk, broadcast);
+        counter += chunk.size();
+        if (progress != null) {
+          progress.accept(counter);
+        }
+      }
     } catch (IOException e) {
       e.printStackTrace();
     }
   }
 
+  @Override
+  public IngestMetrics addTweetsParallel(String filePath, boolean broadcast, int numWorkers,
+      int chunkSize) {
+    this.checkNulls(filePath);
+    IngestPipeline<Tweet> pipeline = new IngestPipeline<>(numWorkers, chunkSize,
+        IngestPipeline.DEFAULT_QUEUE_CAPACITY, Tweet::getUserId);
+    return this.ingestParallel(filePath, 1, pipeline, DatasetReader::nextTweet,
+        (connection, chunk) -> this.flushTweets(connection, chunk, broadcast));
+  }
+
+  /**
+   * Loads the records of a dataset file with an {@link IngestPipeline}, whose writers each take
+   * their own connection from a {@link JedisPool} sized to the number of writers.
+   *
+   * @param filePath the path to the file to be read.
+   * @param numParsers the number of parsers, each one reading a part of the file.
+   * @param pipeline the pipeline to load the records with.
+   * @param parser the function that reads the next record from the file.
+   * @param flusher the function that writes a chunk of records through a connection.
+   * @param <T> the type of the records.
+   * @return the measures of the run.
+   */
+  private <T> IngestMetrics ingestParallel(String filePath, int numParsers,
+      IngestPipeline<T> pipeline, DatasetReader.RecordParser<T> parser,
+      BiConsumer<Jedis, List<T>> flusher) {
+    if (this.mode == RedisExecutionMode.SEQUENTIAL) {
+      throw new IllegalStateException("Parallel ingest cannot run in SEQUENTIAL mode");
+    }
+    JedisPoolConfig config = new JedisPoolConfig();
+    config.setMaxTotal(pipeline.getNumWriters());
+    try (JedisPool pool = new JedisPool(config, "localhost")) {
+      return pipeline.runSplit(filePath, numParsers, parser, () -> new IngestPipeline.Writer<T>() {
+        private final Jedis connection = pool.getResource();
+
+        @Override
+        public void write(List<T> chunk) {
+          flusher.accept(this.connection, chunk);
+        }
+
+        @Override
+        public void close() {
+          this.connection.close();
+        }
+      });
+    }
+  }
+
+  /**
+   * Writes a chunk of tweets into the DB through a given connection.
+   * In {@code SEQUENTIAL} mode every tweet is added on its own and in {@code SCRIPTED} mode every
+   * tweet is added with its own script call. Otherwise the ids of the whole
+   * chunk are reserved with a single {@code INCRBY} (fetching the followers of the authors that
+   * are not cached in the same pipeline when broadcasting) and all the writes are flushed in one
+   * pipeline.
+   *
+   * @param connection the connection to write through.
+   * @param chunk the tweets to be written.
+   * @param broadcast if they have to be broadcasted to the followers.
+   */
+  protected void flushTweets(Jedis connection, List<Tweet> chunk, boolean broadcast) {
+    if (this.mode == RedisExecutionMode.SEQUENTIAL) {
+      for (Tweet t : chunk) {
+        this.addTweet(t, broadcast);
+      }
+      return;
+    }
+    if (this.mode == RedisExecutionMode.SCRIPTED) {
+      for (Tweet t : chunk) {
+        this.addTweetScripted(connection, t, broadcast);
+      }
+      return;
+    }
+    Pipeline reads = connection.pipelined();
+    Response<Long> lastId = reads.incrBy("nextTweetId", chunk.size());
+    Map<String, Set<String>> followers = new HashMap<>();
+    Map<String, Response<Set<String>>> fetched = new HashMap<>();
+    if (broadcast) {
+      for (Tweet t : chunk) {
+        String id = t.getUserId();
+        if (!followers.containsKey(id) && !fetched.containsKey(id)) {
+          Set<String> cached = this.cachedFollowers(id);
+          if (cached != null) {
+            followers.put(id, cached);
+          }
+          else {
+            fetched.put(id, reads.smembers("followers:" + id));
+          }
+        }
+      }
+    }
+    reads.sync();
+    for (Map.Entry<String, Response<Set<String>>> entry : fetched.entrySet()) {
+      followers.put(entry.getKey(), entry.getValue().get());
+      this.cacheFollowers(entry.getKey(), entry.getValue().get());
+    }
+
+    Pipeline writes = connection.pipelined();
+    long nextId = lastId.get() - chunk.size() + 1;
+    for (Tweet t : chunk) {
+      Set<String> targets = broadcast
+          ? followers.get(t.getUserId()) : Collections.<String>emptySet();
+      this.writeTweet(writes, "tweet:" + nextId, t, targets);
+      nextId++;
+    }
+    writes.sync();
+  }
+
   @Override
   public void addTweet(Tweet t) {
     this.checkNulls(t);
@@ -83,96 +539,156 @@ public abstract class AbstractRedisDBOPImpl implements RedisTwitterDatabaseOP {
     this.addTweets(filePath, false);
   }
 
+  @Override
+  abstract public void addFollower(String followerId, String followeeId);
+
   /**
-   * Parses a Tweet from a {@link JsonReader} and inserts it into the database.
+   * Queues the command that stores a given follower-followee relation into a pipeline.
    *
-   * @param reader the reader to read the json  from.
+   * @param pipeline the pipeline to queue the command into.
+   * @param followerId the id of the follower.
+   * @param followeeId the id of the followee.
    */
-  private void addTweetHelp(JsonReader reader, boolean broadcast) throws IOException {
-    String userId = null;
-    long datetime = -1;
-    String message = null;
-    reader.beginObject();
-    while (reader.hasNext()) {
-      String name = reader.nextName();
-      if (name.equals("user_id")) {
-        userId = reader.nextString();
-      }
-      else if (name.equals("datetime")) {
-        datetime = reader.nextLong();
-      }
-      else if (name.equals("message")) {
-        message = reader.nextString();
-      }
-      else {
-        reader.skipValue();
-      }
+  protected abstract void writeFollower(Pipeline pipeline, String followerId, String followeeId);
+
+  @Override
+  public IngestMetrics addFollowersParallel(String filePath, int numWorkers) {
+    this.checkNulls(filePath);
+    IngestPipeline<String[]> pipeline = new IngestPipeline<>(numWorkers, DEFAULT_CHUNK_SIZE,
+        IngestPipeline.DEFAULT_QUEUE_CAPACITY, pair -> pair[1]);
+    // Relations are sets, so their order does not matter and the file can be parsed in parts
+    return this.ingestParallel(filePath, numWorkers, pipeline, DatasetReader::nextFollower,
+        this::flushFollowers);
+  }
+
+  /**
+   * Writes a chunk of follower-followee relations into the DB through a given connection with a
+   * single pipeline, and adds them to the follower cache.
+   *
+   * @param connection the connection to write through.
+   * @param chunk the relations to be written, as (follower, followee) pairs.
+   */
+  protected void flushFollowers(Jedis connection, List<String[]> chunk) {
+    Pipeline pipeline = connection.pipelined();
+    for (String[] pair : chunk) {
+      this.writeFollower(pipeline, pair[0], pair[1]);
     }
-    reader.endObject();
-    if (userId == null || datetime == -1 || message == null) {
-      throw new IllegalStateException("Missing data from current JsonReader");
+    pipeline.sync();
+    for (String[] pair : chunk) {
+      this.cacheFollower(pair[0], pair[1]);
     }
-    Calendar c = Calendar.getInstance();
-    c.setTime(new Date(datetime));
-    Tweet t = new Tweet(userId, c, message);
-    this.addTweet(t, broadcast);
   }
 
-  @Override
-  abstract public void addFollower(String followerId, String followeeId);
-
   @Override
   public void addFollowers(String filePath) {
     this.checkNulls(filePath);
-    try {
-      JsonReader reader = new JsonReader(new FileReader(filePath));
-      reader.beginArray();
-      while (reader.hasNext()) {
-        this.addFollowerHelp(reader);
+    try (DatasetReader reader = new DatasetReader(filePath)) {
+      for (String[] pair = reader.nextFollower(); pair != null; pair = reader.nextFollower()) {
+        this.addFollower(pair[0], pair[1]);
       }
-      reader.endArray();
-      reader.close();
     } catch (IOException e) {
       e.printStackTrace();
     }
   }
 
+  @Override
+  public List<Tweet> getHomeTM(String userId) {
+    this.checkNulls(userId);
+    return this.getHomeTM(userId, 10);
+  }
+
+  @Override
+  abstract public List<Tweet> getHomeTM(String userId, int numOfTweets);
+
   /**
-   * Parses a follower-followee relation from a {@link JsonReader} and inserts it into the database.
+   * Merges sets of tweet keys scored by their datetime in milliseconds from epoch and keeps the
+   * most recent ones, using a bounded min-heap instead of sorting all the candidates.
    *
-   * @param reader the reader to read the json from.
+   * @param candidateSets the sets of scored tweet keys.
+   * @param numOfTweets the max number of keys to keep.
+   * @return the most recent keys, from the most to the least recent.
    */
-  private void addFollowerHelp(JsonReader reader) throws IOException {
-    String follower_id = null;
-    String followee_id = null;
-    reader.beginObject();
-    while (reader.hasNext()) {
-      String name = reader.nextName();
-      if (name.equals("user_id")) {
-        follower_id = reader.nextString();
+  protected String[] mostRecentKeys(Iterable<Set<Tuple>> candidateSets, int numOfTweets) {
+    // Min-heap on the timestamp holding the most recent numOfTweets tweet keys seen so far
+    PriorityQueue<Tuple> heap =
+        new PriorityQueue<>(numOfTweets, Comparator.comparingDouble(Tuple::getScore));
+    for (Set<Tuple> candidates : candidateSets) {
+      for (Tuple tuple : candidates) {
+        if (heap.size() < numOfTweets) {
+          heap.add(tuple);
+        }
+        else if (tuple.getScore() > heap.peek().getScore()) {
+          heap.poll();
+          heap.add(tuple);
+        }
       }
-      else if (name.equals("follows_id")) {
-        followee_id = reader.nextString();
+    }
+    // Polling the min-heap gives the oldest tweet first, so the keys are filled from the back
+    String[] keys = new String[heap.size()];
+    for (int i = keys.length - 1; i >= 0; i--) {
+      keys[i] = heap.poll().getElement();
+    }
+    return keys;
+  }
+
+  /**
+   * Reads the tweet hashes stored under given keys with a single pipeline of {@code HMGET}s.
+   * If the tweet cache is enabled, only the tweets missing from the cache are read, and then
+   * cached. If all of them are cached, Redis is not contacted at all.
+   *
+   * @param keys the keys of the tweets, in the form 'tweet:(int)'.
+   * @return the tweets, in the same order as the keys.
+   */
+  protected List<Tweet> hydrateTweets(String[] keys) {
+    TweetCache cache = this.tweetCache;
+    Tweet[] tweets = new Tweet[keys.length];
+    Pipeline pipeline = null;
+    Response<?>[] hashes = new Response<?>[keys.length];
+    for (int i = 0; i < keys.length; i++) {
+      if (cache != null) {
+        tweets[i] = cache.get(keys[i]);
       }
-      else {
-        reader.skipValue();
+      if (tweets[i] == null) {
+        if (pipeline == null) {
+          pipeline = this.jedis.pipelined();
+        }
+        hashes[i] = pipeline.hmget(keys[i], "userid", "datetime", "text");
       }
     }
-    reader.endObject();
-    if (follower_id == null || followee_id == null) {
-      throw new IllegalStateException("Missing data from current JsonReader");
+    if (pipeline != null) {
+      pipeline.sync();
     }
-    this.addFollower(follower_id, followee_id);
-  }
 
-  @Override
-  public List<Tweet> getHomeTM(String userId) {
-    this.checkNulls(userId);
-    return this.getHomeTM(userId, 10);
+    List<Tweet> result = new ArrayList<>(keys.length);
+    for (int i = 0; i < keys.length; i++) {
+      if (tweets[i] == null) {
+        @SuppressWarnings("unchecked")
+        List<String> values = (List<String>) hashes[i].get();
+        tweets[i] = this.toTweet(values);
+        if (cache != null) {
+          cache.put(keys[i], tweets[i]);
+        }
+      }
+      result.add(tweets[i]);
+    }
+    return result;
   }
 
-  @Override
-  abstract public List<Tweet> getHomeTM(String userId, int numOfTweets);
+  /**
+   * Converts the values of a tweet hash, read in the order userid, datetime, text, into a Tweet.
+   *
+   * @param values the values of the hash.
+   * @return the tweet.
+   */
+  protected Tweet toTweet(List<String> values) {
+    String id = values.get(0);
+    String dt = values.get(1);
+    String text = values.get(2);
+    if (id == null || dt == null || text == null) {
+      throw new IllegalStateException("Missing data from tweet");
+    }
+    return new Tweet(id, this.parseDatetime(dt), text);
+  }
 
   @Override
   abstract public Set<String> getFollowers(String userId);
@@ -183,6 +699,11 @@ public abstract class AbstractRedisDBOPImpl implements RedisTwitterDatabaseOP {
   @Override
   public void resetDatabase() {
     this.jedis.flushDB();
+    // Tweet ids start again from 1, so the cached keys would point to different tweets
+    if (this.tweetCache != null) {
+      this.tweetCache.clear();
+    }
+    this.followerCache.clear();
   }
 
   /**
@@ -0,0 +1,26 @@
+package twitter.database;
+
+/**
+ * Represents the formats in which the tweet and follow relation datasets can be written.
+ * {@link DatasetWriter} writes them and {@link DatasetReader} recognizes the format of a file by
+ * itself, so every loader accepts all of them.
+ */
+public enum DatasetFormat {
+
+  /**
+   * A single indented json array holding all the records. It can only be parsed sequentially.
+   */
+  JSON,
+
+  /**
+   * One json object per line, without indentation. As a newline never appears inside a record,
+   * the file can be split at line boundaries and the parts parsed in parallel.
+   */
+  NDJSON,
+
+  /**
+   * Length-prefixed binary records, described in {@link DatasetWriter}, read from a memory mapped
+   * file without parsing any text. Ids have to be numeric and a file cannot be bigger than 2GB.
+   */
+  BINARY
+}
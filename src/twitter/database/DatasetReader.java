@@ -0,0 +1,584 @@
+package twitter.database;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Represents a reader of the dataset files written by {@code TwitterUtil}: tweets (objects with
+ * 'user_id', 'datetime' in milliseconds from epoch and 'message') or follow relations (objects
+ * with 'user_id' and 'follows_id'), in any of the {@link DatasetFormat}s. The format is recognized
+ * from the start of the file: a binary file starts with the bytes 'TWDS', a json array with '['
+ * and newline-delimited json directly with an object. Binary files are memory mapped and their
+ * numeric fields read straight from the bytes.
+ * Records are read one at a time, so a whole file is never held in memory.
+ * This is the only place where the records of the datasets are parsed, every loader goes through
+ * it.
+ */
+public class DatasetReader implements Closeable {
+
+  /**
+   * The max number of bytes of a part of a split file, the most a single mapping can hold.
+   */
+  private static final long MAX_SPLIT_SIZE = Integer.MAX_VALUE;
+
+  /**
+   * The number of bytes of the header of a binary file.
+   */
+  private static final int HEADER_SIZE = DatasetWriter.MAGIC.length + 2;
+
+  private final DatasetFormat format;
+  private final JsonReader reader;
+  private final ByteBuffer records;
+  private final byte kind;
+  private boolean started;
+  private boolean finished;
+
+  /**
+   * Opens a dataset file.
+   *
+   * @param filePath the path to the file to be read.
+   * @throws IOException if the file cannot be opened.
+   */
+  public DatasetReader(String filePath) throws IOException {
+    this(filePath, isBinary(filePath));
+  }
+
+  /**
+   * Opens a dataset file in a format already recognized.
+   *
+   * @param filePath the path to the file to be read.
+   * @param binary if the file is binary.
+   * @throws IOException if the file cannot be opened.
+   */
+  private DatasetReader(String filePath, boolean binary) throws IOException {
+    this(binary ? null : new BufferedReader(
+            new InputStreamReader(new FileInputStream(filePath), StandardCharsets.UTF_8)),
+        binary ? mapBinary(filePath) : null, (byte) 0);
+  }
+
+  /**
+   * Creates a reader of the dataset records of a given character stream or of the given bytes of
+   * a binary file.
+   *
+   * @param in the stream, which has to support {@code mark}, or {@code null}.
+   * @param binary the bytes of a binary file, or {@code null}.
+   * @param kind the kind of the records of the binary bytes, or 0 if they start with the header.
+   * @throws IOException if the stream cannot be read.
+   */
+  private DatasetReader(Reader in, ByteBuffer binary, byte kind) throws IOException {
+    this.started = false;
+    if (binary != null) {
+      this.format = DatasetFormat.BINARY;
+      this.reader = null;
+      this.kind = kind != 0 ? kind : readHeader(binary);
+      this.records = binary.slice();
+      this.finished = !this.records.hasRemaining();
+      return;
+    }
+    this.reader = new JsonReader(in);
+    this.records = null;
+    this.kind = 0;
+    int first = firstCharacter(in);
+    this.format = first == '[' ? DatasetFormat.JSON : DatasetFormat.NDJSON;
+    if (this.format == DatasetFormat.NDJSON) {
+      // Lenient readers accept several top-level values, one per line here
+      this.reader.setLenient(true);
+    }
+    this.finished = first == -1;
+  }
+
+  /**
+   * Checks if a file starts like a binary dataset.
+   *
+   * @param filePath the path to the file.
+   * @return if the file is binary.
+   * @throws IOException if the file cannot be read.
+   */
+  private static boolean isBinary(String filePath) throws IOException {
+    if (filePath == null) {
+      throw new IllegalArgumentException("Given argument is null");
+    }
+    byte[] start = new byte[DatasetWriter.MAGIC.length];
+    try (InputStream in = new FileInputStream(filePath)) {
+      int read = 0;
+      while (read < start.length) {
+        int count = in.read(start, read, start.length - read);
+        if (count == -1) {
+          return false;
+        }
+        read += count;
+      }
+    }
+    return Arrays.equals(start, DatasetWriter.MAGIC);
+  }
+
+  /**
+   * Maps a whole binary file into memory.
+   *
+   * @param filePath the path to the file.
+   * @return the bytes of the file.
+   * @throws IOException if the file cannot be read.
+   */
+  private static ByteBuffer mapBinary(String filePath) throws IOException {
+    try (FileChannel channel = FileChannel.open(Paths.get(filePath), StandardOpenOption.READ)) {
+      if (channel.size() > MAX_SPLIT_SIZE) {
+        throw new IllegalArgumentException("Binary datasets cannot be bigger than 2GB");
+      }
+      // A mapping stays valid after its channel is closed
+      return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    }
+  }
+
+  /**
+   * Reads the header of a binary file, moving the buffer after it.
+   *
+   * @param buffer the bytes of the file.
+   * @return the kind of the records of the file.
+   */
+  private static byte readHeader(ByteBuffer buffer) {
+    if (buffer.remaining() < HEADER_SIZE) {
+      throw new IllegalStateException("Binary dataset is too short for its header");
+    }
+    buffer.position(buffer.position() + DatasetWriter.MAGIC.length);
+    byte version = buffer.get();
+    if (version != DatasetWriter.VERSION) {
+      throw new IllegalStateException("Unsupported binary dataset version " + version);
+    }
+    return buffer.get();
+  }
+
+  /**
+   * Finds the first character of a stream that is not a whitespace, without consuming it.
+   *
+   * @param in the stream, which has to support {@code mark}.
+   * @return the character, or -1 if the stream has none.
+   * @throws IOException if the stream cannot be read.
+   */
+  private static int firstCharacter(Reader in) throws IOException {
+    while (true) {
+      in.mark(1);
+      int c = in.read();
+      if (c == -1 || !Character.isWhitespace(c)) {
+        in.reset();
+        return c;
+      }
+    }
+  }
+
+  /**
+   * Gets the format of the file being read.
+   *
+   * @return the format.
+   */
+  public DatasetFormat getFormat() {
+    return this.format;
+  }
+
+  /**
+   * Reads the next tweet of a file of tweets.
+   *
+   * @return the tweet, or {@code null} if there are no more tweets.
+   * @throws IOException if the file cannot be read.
+   */
+  public Tweet nextTweet() throws IOException {
+    if (this.format == DatasetFormat.BINARY) {
+      ByteBuffer record = this.nextRecord(DatasetWriter.TWEET_RECORDS);
+      return record == null ? null : TweetCodec.decode(record);
+    }
+    if (!this.hasNext()) {
+      return null;
+    }
+    return readTweet(this.reader);
+  }
+
+  /**
+   * Reads the next follower-followee relation of a file of follow relations.
+   *
+   * @return the relation as a (follower, followee) pair, or {@code null} if there are no more.
+   * @throws IOException if the file cannot be read.
+   */
+  public String[] nextFollower() throws IOException {
+    if (this.format == DatasetFormat.BINARY) {
+      ByteBuffer record = this.nextRecord(DatasetWriter.FOLLOW_RECORDS);
+      if (record == null) {
+        return null;
+      }
+      long followerId = TweetCodec.readVarint(record);
+      long followeeId = TweetCodec.readVarint(record);
+      return new String[] {String.valueOf(followerId), String.valueOf(followeeId)};
+    }
+    if (!this.hasNext()) {
+      return null;
+    }
+    return readFollower(this.reader);
+  }
+
+  /**
+   * Gets the bytes of the next record of a binary file and moves past it.
+   *
+   * @param recordKind the kind of records expected.
+   * @return the bytes of the record, or {@code null} if there are no more records.
+   */
+  private ByteBuffer nextRecord(byte recordKind) {
+    if (this.kind != recordKind) {
+      throw new IllegalStateException("Binary dataset holds records of another kind");
+    }
+    if (!this.records.hasRemaining()) {
+      return null;
+    }
+    int length = (int) TweetCodec.readVarint(this.records);
+    int end = this.records.position() + length;
+    if (length < 0 || end > this.records.limit()) {
+      throw new IllegalStateException("Binary dataset is truncated");
+    }
+    ByteBuffer record = this.records.duplicate();
+    record.limit(end);
+    this.records.position(end);
+    return record;
+  }
+
+  /**
+   * Checks if there is another record. In a json array, the array is opened on the first call and
+   * closed after the last record.
+   *
+   * @return if there is another record.
+   * @throws IOException if the file cannot be read.
+   */
+  private boolean hasNext() throws IOException {
+    if (this.finished) {
+      return false;
+    }
+    if (this.format == DatasetFormat.NDJSON) {
+      this.finished = this.reader.peek() == JsonToken.END_DOCUMENT;
+      return !this.finished;
+    }
+    if (!this.started) {
+      this.reader.beginArray();
+      this.started = true;
+    }
+    if (this.reader.hasNext()) {
+      return true;
+    }
+    this.reader.endArray();
+    this.finished = true;
+    return false;
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (this.reader != null) {
+      this.reader.close();
+    }
+  }
+
+  /**
+   * Splits a dataset file into parts of about the same size, each one memory mapped and read by
+   * its own reader, so that the parts can be parsed in parallel. Newline-delimited files are
+   * split at line boundaries and binary files at record boundaries. A json array or an empty file
+   * cannot be split, so it is read by a single reader. Parts of a newline-delimited file are
+   * never bigger than 2GB, so a huge file can give more parts than asked for.
+   *
+   * @param filePath the path to the file to be read.
+   * @param numSplits the number of parts to split the file into.
+   * @return the readers of the parts, in the order of the file.
+   * @throws IOException if the file cannot be read.
+   */
+  public static List<DatasetReader> split(String filePath, int numSplits) throws IOException {
+    if (numSplits < 1) {
+      throw new IllegalArgumentException("The number of splits has to be bigger than 0");
+    }
+    List<DatasetReader> splits = new ArrayList<>();
+    DatasetReader whole = new DatasetReader(filePath);
+    if (whole.format == DatasetFormat.JSON || whole.finished) {
+      splits.add(whole);
+      return splits;
+    }
+    whole.close();
+    if (whole.format == DatasetFormat.BINARY) {
+      return splitBinary(whole, numSplits);
+    }
+    try (FileChannel channel = FileChannel.open(Paths.get(filePath), StandardOpenOption.READ)) {
+      long size = channel.size();
+      numSplits = (int) Math.max(numSplits, (size + MAX_SPLIT_SIZE - 1) / MAX_SPLIT_SIZE);
+      long start = 0;
+      for (int i = 1; i <= numSplits && start < size; i++) {
+        long end = i == numSplits ? size : lineEnd(channel, Math.max(start, size / numSplits * i));
+        if (end > start) {
+          // A mapping stays valid after its channel is closed
+          ByteBuffer part = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+          splits.add(new DatasetReader(new BufferedReader(
+              new InputStreamReader(new ByteBufferInputStream(part), StandardCharsets.UTF_8)),
+              null, (byte) 0));
+        }
+        start = end;
+      }
+    }
+    return splits;
+  }
+
+  /**
+   * Splits the records of a binary file into parts of about the same size, sharing its mapping.
+   *
+   * @param whole the reader of the whole file, positioned before its first record.
+   * @param numSplits the number of parts.
+   * @return the readers of the parts, in the order of the file.
+   * @throws IOException never, the records are already in memory.
+   */
+  private static List<DatasetReader> splitBinary(DatasetReader whole, int numSplits)
+      throws IOException {
+    List<DatasetReader> splits = new ArrayList<>();
+    ByteBuffer records = whole.records;
+    int size = records.limit();
+    int start = 0;
+    for (int i = 1; i <= numSplits && start < size; i++) {
+      int target = i == numSplits ? size : (int) ((long) size * i / numSplits);
+      // Skips whole records until the target, reading only their lengths
+      records.position(start);
+      while (records.position() < target) {
+        int length = (int) TweetCodec.readVarint(records);
+        records.position(Math.min(size, records.position() + length));
+      }
+      int end = records.position();
+      if (end > start) {
+        ByteBuffer part = records.duplicate();
+        part.position(start);
+        part.limit(end);
+        splits.add(new DatasetReader(null, part, whole.kind));
+      }
+      start = end;
+    }
+    return splits;
+  }
+
+  /**
+   * Finds the end of the line a given position of a file belongs to. A newline byte never appears
+   * inside a multibyte UTF-8 character, so the bytes can be searched without decoding them.
+   *
+   * @param channel the channel of the file.
+   * @param position the position.
+   * @return the position after the newline ending the line, or the size of the file.
+   * @throws IOException if the file cannot be read.
+   */
+  private static long lineEnd(FileChannel channel, long position) throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate(8192);
+    while (true) {
+      buffer.clear();
+      int read = channel.read(buffer, position);
+      if (read == -1) {
+        return channel.size();
+      }
+      for (int i = 0; i < read; i++) {
+        if (buffer.get(i) == '\n') {
+          return position + i + 1;
+        }
+      }
+      position += read;
+    }
+  }
+
+  /**
+   * Reads all the tweets of a file, parsing the parts of a newline-delimited file in parallel.
+   *
+   * @param filePath the path to the file to be read.
+   * @param parallelism the number of parts parsed at once.
+   * @return the tweets, in the order of the file.
+   * @throws IOException if the file cannot be read.
+   */
+  public static List<Tweet> readTweets(String filePath, int parallelism) throws IOException {
+    return readAll(filePath, parallelism, DatasetReader::nextTweet);
+  }
+
+  /**
+   * Reads all the follower-followee relations of a file, parsing the parts of a
+   * newline-delimited file in parallel.
+   *
+   * @param filePath the path to the file to be read.
+   * @param parallelism the number of parts parsed at once.
+   * @return the relations as (follower, followee) pairs, in the order of the file.
+   * @throws IOException if the file cannot be read.
+   */
+  public static List<String[]> readFollowers(String filePath, int parallelism)
+      throws IOException {
+    return readAll(filePath, parallelism, DatasetReader::nextFollower);
+  }
+
+  /**
+   * Reads all the records of a file, one thread for each part of the file.
+   *
+   * @param filePath the path to the file to be read.
+   * @param parallelism the number of parts parsed at once.
+   * @param parser reads the next record of a part.
+   * @param <T> the type of the records.
+   * @return the records, in the order of the file.
+   * @throws IOException if the file cannot be read.
+   */
+  private static <T> List<T> readAll(String filePath, int parallelism, RecordParser<T> parser)
+      throws IOException {
+    List<DatasetReader> splits = split(filePath, parallelism);
+    ExecutorService executor = Executors.newFixedThreadPool(splits.size());
+    try {
+      List<Future<List<T>>> parts = new ArrayList<>();
+      for (DatasetReader split : splits) {
+        parts.add(executor.submit(() -> {
+          List<T> records = new ArrayList<>();
+          try (DatasetReader reader = split) {
+            for (T record = parser.read(reader); record != null; record = parser.read(reader)) {
+              records.add(record);
+            }
+          }
+          return records;
+        }));
+      }
+      List<T> result = new ArrayList<>();
+      for (Future<List<T>> part : parts) {
+        result.addAll(part.get());
+      }
+      return result;
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      }
+      throw new IllegalStateException("Dataset parser failed", e.getCause());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while reading " + filePath);
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  /**
+   * Reads the next record of a dataset.
+   *
+   * @param <T> the type of the records.
+   */
+  interface RecordParser<T> {
+
+    /**
+     * Reads the next record of a reader.
+     *
+     * @param reader the reader.
+     * @return the record, or {@code null} if there are no more records.
+     * @throws IOException if the record cannot be read.
+     */
+    T read(DatasetReader reader) throws IOException;
+  }
+
+  /**
+   * Represents an input stream over the bytes of a buffer, such as a part of a mapped file.
+   */
+  private static class ByteBufferInputStream extends InputStream {
+
+    private final ByteBuffer buffer;
+
+    /**
+     * Creates a stream of the remaining bytes of a buffer.
+     *
+     * @param buffer the buffer.
+     */
+    ByteBufferInputStream(ByteBuffer buffer) {
+      this.buffer = buffer;
+    }
+
+    @Override
+    public int read() {
+      return this.buffer.hasRemaining() ? this.buffer.get() & 0xFF : -1;
+    }
+
+    @Override
+    public int read(byte[] dest, int offset, int length) {
+      if (length == 0) {
+        return 0;
+      }
+      if (!this.buffer.hasRemaining()) {
+        return -1;
+      }
+      int count = Math.min(length, this.buffer.remaining());
+      this.buffer.get(dest, offset, count);
+      return count;
+    }
+  }
+
+  /**
+   * Parses a Tweet from a {@link JsonReader}.
+   *
+   * @param reader the reader to read the json from.
+   * @return the parsed tweet.
+   * @throws IOException if the json cannot be read.
+   */
+  public static Tweet readTweet(JsonReader reader) throws IOException {
+    String userId = null;
+    long datetime = -1;
+    String message = null;
+    reader.beginObject();
+    while (reader.hasNext()) {
+      String name = reader.nextName();
+      if (name.equals("user_id")) {
+        userId = reader.nextString();
+      }
+      else if (name.equals("datetime")) {
+        datetime = reader.nextLong();
+      }
+      else if (name.equals("message")) {
+        message = reader.nextString();
+      }
+      else {
+        reader.skipValue();
+      }
+    }
+    reader.endObject();
+    if (userId == null || datetime == -1 || message == null) {
+      throw new IllegalStateException("Missing data from current JsonReader");
+    }
+    return new Tweet(userId, datetime, message);
+  }
+
+  /**
+   * Parses a follower-followee relation from a {@link JsonReader}.
+   *
+   * @param reader the reader to read the json from.
+   * @return the relation as a (follower, followee) pair.
+   * @throws IOException if the json cannot be read.
+   */
+  public static String[] readFollower(JsonReader reader) throws IOException {
+    String followerId = null;
+    String followeeId = null;
+    reader.beginObject();
+    while (reader.hasNext()) {
+      String name = reader.nextName();
+      if (name.equals("user_id")) {
+        followerId = reader.nextString();
+      }
+      else if (name.equals("follows_id")) {
+        followeeId = reader.nextString();
+      }
+      else {
+        reader.skipValue();
+      }
+    }
+    reader.endObject();
+    if (followerId == null || followeeId == null) {
+      throw new IllegalStateException("Missing data from current JsonReader");
+    }
+    return new String[] {followerId, followeeId};
+  }
+}
@@ -0,0 +1,264 @@
+package twitter.database;
+
+import com.google.gson.stream.JsonWriter;
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Represents a writer of dataset files in any of the {@link DatasetFormat}s, holding either
+ * tweets or follow relations. Records are written one at a time, so a whole dataset is never
+ * held in memory.
+ * A binary file starts with the bytes 'TWDS', the version of the format and the kind of its
+ * records (1 for tweets, 2 for follow relations), followed by the records, each one prefixed
+ * with its length in bytes as an unsigned varint. A tweet record is encoded with
+ * {@link TweetCodec}; a follow relation record is the follower id and the followee id as
+ * unsigned varints. Ids have to be numeric to be written in binary.
+ * This is the only place where the records of the datasets are written, {@link DatasetReader}
+ * reads them back.
+ */
+public class DatasetWriter implements Closeable {
+
+  /**
+   * The bytes every binary dataset file starts with.
+   */
+  static final byte[] MAGIC = {'T', 'W', 'D', 'S'};
+
+  /**
+   * The version of the binary format written.
+   */
+  static final byte VERSION = 1;
+
+  /**
+   * The kind of a binary file of tweets.
+   */
+  static final byte TWEET_RECORDS = 1;
+
+  /**
+   * The kind of a binary file of follow relations.
+   */
+  static final byte FOLLOW_RECORDS = 2;
+
+  private final DatasetFormat format;
+  private final Writer text;
+  private final JsonWriter json;
+  private final OutputStream binary;
+  private final byte[] scratch;
+  private final boolean continuation;
+  private byte kind;
+
+  /**
+   * Creates a dataset file, replacing it if it exists.
+   *
+   * @param filePath the path of the file.
+   * @param format the format to write the records in.
+   * @throws IOException if the file cannot be created.
+   */
+  public DatasetWriter(String filePath, DatasetFormat format) throws IOException {
+    this(new FileOutputStream(checkPath(filePath)), format, false);
+  }
+
+  /**
+   * Creates a writer of a dataset to a given stream, which is closed with the writer. The records
+   * of a continuation are written without the binary header, so that its bytes can be appended
+   * to the bytes of another writer of the same format, e.g. to write the parts of a dataset
+   * concurrently. A json array cannot be continued.
+   *
+   * @param out the stream to write to.
+   * @param format the format to write the records in.
+   * @param continuation if the records continue a dataset started by another writer.
+   * @throws IOException if the stream cannot be written.
+   */
+  public DatasetWriter(OutputStream out, DatasetFormat format, boolean continuation)
+      throws IOException {
+    if (out == null || format == null) {
+      throw new IllegalArgumentException("Given argument is null");
+    }
+    if (continuation && format == DatasetFormat.JSON) {
+      out.close();
+      throw new IllegalArgumentException("A json array cannot be continued by another writer");
+    }
+    this.format = format;
+    this.scratch = new byte[20];
+    this.continuation = continuation;
+    this.kind = 0;
+    if (format == DatasetFormat.BINARY) {
+      this.text = null;
+      this.json = null;
+      this.binary = new BufferedOutputStream(out, 64 * 1024);
+    }
+    else {
+      this.binary = null;
+      this.text = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+      this.json = new JsonWriter(this.text);
+      if (format == DatasetFormat.NDJSON) {
+        // Lenient writers accept several top-level values, one per line here
+        this.json.setLenient(true);
+      }
+      else {
+        this.json.setIndent("    ");
+        this.json.beginArray();
+      }
+    }
+  }
+
+  /**
+   * Writes a tweet.
+   *
+   * @param t the tweet.
+   * @throws IOException if the file cannot be written.
+   * @throws IllegalStateException if the file already holds follow relations.
+   */
+  public void writeTweet(Tweet t) throws IOException {
+    this.begin(TWEET_RECORDS);
+    if (this.format == DatasetFormat.BINARY) {
+      this.writeRecord(TweetCodec.encode(t));
+      return;
+    }
+    this.json.beginObject();
+    this.json.name("user_id").value(t.getUserId());
+    this.json.name("datetime").value(t.getTimestamp());
+    this.json.name("message").value(t.getMessage());
+    this.json.endObject();
+    this.endLine();
+  }
+
+  /**
+   * Writes a follower-followee relation.
+   *
+   * @param followerId the id of the follower.
+   * @param followeeId the id of the followee.
+   * @throws IOException if the file cannot be written.
+   * @throws IllegalStateException if the file already holds tweets.
+   */
+  public void writeFollower(String followerId, String followeeId) throws IOException {
+    this.begin(FOLLOW_RECORDS);
+    if (this.format == DatasetFormat.BINARY) {
+      int end = TweetCodec.writeVarint(this.scratch, 0, parseId(followerId));
+      end = TweetCodec.writeVarint(this.scratch, end, parseId(followeeId));
+      this.writeVarint(end);
+      this.binary.write(this.scratch, 0, end);
+      return;
+    }
+    this.json.beginObject();
+    this.json.name("user_id").value(followerId);
+    this.json.name("follows_id").value(followeeId);
+    this.json.endObject();
+    this.endLine();
+  }
+
+  /**
+   * Checks that a record is of the same kind as the ones already written, writing the header of
+   * a binary file before its first record.
+   *
+   * @param recordKind the kind of the record.
+   * @throws IOException if the file cannot be written.
+   */
+  private void begin(byte recordKind) throws IOException {
+    if (this.kind == recordKind) {
+      return;
+    }
+    if (this.kind != 0) {
+      throw new IllegalStateException("Tweets and follow relations cannot be in the same file");
+    }
+    this.kind = recordKind;
+    if (this.format == DatasetFormat.BINARY && !this.continuation) {
+      this.binary.write(MAGIC);
+      this.binary.write(VERSION);
+      this.binary.write(recordKind);
+    }
+  }
+
+  /**
+   * Writes a binary record prefixed with its length.
+   *
+   * @param record the bytes of the record.
+   * @throws IOException if the file cannot be written.
+   */
+  private void writeRecord(byte[] record) throws IOException {
+    this.writeVarint(record.length);
+    this.binary.write(record);
+  }
+
+  /**
+   * Writes a value as an unsigned varint.
+   *
+   * @param value the value.
+   * @throws IOException if the file cannot be written.
+   */
+  private void writeVarint(long value) throws IOException {
+    while ((value & ~0x7FL) != 0) {
+      this.binary.write((int) ((value & 0x7F) | 0x80));
+      value >>>= 7;
+    }
+    this.binary.write((int) value);
+  }
+
+  /**
+   * Ends the line of a record if the format has one record per line.
+   *
+   * @throws IOException if the file cannot be written.
+   */
+  private void endLine() throws IOException {
+    if (this.format == DatasetFormat.NDJSON) {
+      this.text.write('\n');
+    }
+  }
+
+  /**
+   * Checks that a file path is given.
+   *
+   * @param filePath the file path.
+   * @return the file path.
+   */
+  private static String checkPath(String filePath) {
+    if (filePath == null) {
+      throw new IllegalArgumentException("Given argument is null");
+    }
+    return filePath;
+  }
+
+  /**
+   * Parses an id into a non negative number.
+   *
+   * @param id the id.
+   * @return the numeric value of the id.
+   * @throws IllegalArgumentException if the id is not a non negative number.
+   */
+  private static long parseId(String id) {
+    try {
+      long value = Long.parseLong(id);
+      if (value < 0) {
+        throw new IllegalArgumentException("Id has to be non negative: " + id);
+      }
+      return value;
+    } catch (NumberFormatException e) {
+      throw new IllegalArgumentException("Id has to be numeric: " + id);
+    }
+  }
+
+  /**
+   * Ends the dataset and closes the file.
+   *
+   * @throws IOException if the file cannot be written.
+   */
+  @Override
+  public void close() throws IOException {
+    if (this.format == DatasetFormat.BINARY) {
+      this.binary.close();
+      return;
+    }
+    if (this.format == DatasetFormat.JSON) {
+      this.json.endArray();
+    }
+    // Closing the json writer itself fails on a newline-delimited file without records
+    this.json.flush();
+    this.text.close();
+  }
+}
@@ -0,0 +1,26 @@
+package twitter.database;
+
+/**
+ * Represents the ways in which the Redis strategies can cache the followers of each user in
+ * process, to avoid fetching them from the database every time a tweet is broadcasted.
+ */
+public enum FollowerCacheMode {
+
+  /**
+   * Followers are fetched from the database on every broadcast.
+   */
+  NONE,
+
+  /**
+   * The followers of a user are fetched from the database on the first broadcast of one of their
+   * tweets and kept for the following ones.
+   */
+  ON_DEMAND,
+
+  /**
+   * The followers of every user are loaded from the database when the mode is set, and every
+   * follow relation added afterwards (e.g. by {@code addFollowers}) is added to the cache too, so
+   * broadcasts never fetch them.
+   */
+  PRELOADED
+}
@@ -0,0 +1,195 @@
+package twitter.database;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Represents a {@link DatabaseOP} that wraps another one and keeps the last home timeline computed
+ * for each user in memory, so that repeated reads of the same timeline do not reach the database.
+ *
+ * DESIGN:
+ * Every cached timeline remembers how many tweets were asked for, so it can answer any request for
+ * up to that many tweets. Writes that go through this class invalidate the timelines they can
+ * change: a new tweet invalidates the timelines of the followers of its author (or every timeline
+ * if the wrapped database cannot list followers), a new follow relation invalidates the timeline of
+ * the follower, and bulk loads or resets invalidate every timeline. Writes made to the wrapped
+ * database directly have to be followed by a call to {@code invalidate} or {@code invalidateAll}.
+ * A generation counter bumped by every invalidation keeps a read that raced with a write from
+ * caching a timeline computed before the write.
+ * This class is thread safe as long as the wrapped database is.
+ */
+public class HomeTMCachingDatabaseOP implements DatabaseOP {
+
+  private final DatabaseOP delegate;
+  private final Map<String, CachedTimeline> timelines;
+  private final AtomicLong generation;
+
+  /**
+   * Wraps a given database.
+   *
+   * @param delegate the database to cache the home timelines of.
+   */
+  public HomeTMCachingDatabaseOP(DatabaseOP delegate) {
+    if (delegate == null) {
+      throw new IllegalArgumentException("Given argument is null");
+    }
+    this.delegate = delegate;
+    this.timelines = new ConcurrentHashMap<>();
+    this.generation = new AtomicLong();
+  }
+
+  @Override
+  public void addTweet(Tweet t) {
+    this.delegate.addTweet(t);
+    this.invalidateFollowers(t.getUserId());
+  }
+
+  @Override
+  public void addTweet(String userId, Calendar datetime, String message) {
+    this.delegate.addTweet(userId, datetime, message);
+    this.invalidateFollowers(userId);
+  }
+
+  @Override
+  public void addTweets(String filePath) {
+    this.delegate.addTweets(filePath);
+    this.invalidateAll();
+  }
+
+  @Override
+  public void addFollower(String followerId, String followeeId) {
+    this.delegate.addFollower(followerId, followeeId);
+    this.invalidate(followerId);
+  }
+
+  @Override
+  public void addFollowers(String filePath) {
+    this.delegate.addFollowers(filePath);
+    this.invalidateAll();
+  }
+
+  @Override
+  public List<Tweet> getHomeTM(String userId) {
+    if (userId == null) {
+      throw new IllegalArgumentException("Given argument is null");
+    }
+    return this.getHomeTM(userId, 10);
+  }
+
+  /**
+   * The arguments are checked before the cache is looked up, so that invalid ones fail the same
+   * way whether the timeline is cached or not.
+   */
+  @Override
+  public List<Tweet> getHomeTM(String userId, int numOfTweets) {
+    if (userId == null) {
+      throw new IllegalArgumentException("Given argument is null");
+    }
+    if (numOfTweets < 1) {
+      throw new IllegalArgumentException("The number of tweets has to be bigger than 0");
+    }
+    CachedTimeline cached = this.timelines.get(userId);
+    // A timeline with less tweets than asked for when it was computed is complete
+    if (cached != null && (cached.tweets.size() >= numOfTweets || !cached.truncated)) {
+      List<Tweet> tweets = cached.tweets;
+      return new ArrayList<>(tweets.subList(0, Math.min(numOfTweets, tweets.size())));
+    }
+    long before = this.generation.get();
+    List<Tweet> computed = this.delegate.getHomeTM(userId, numOfTweets);
+    CachedTimeline timeline = new CachedTimeline(computed, computed.size() == numOfTweets);
+    this.timelines.put(userId, timeline);
+    if (this.generation.get() != before) {
+      // A write happened meanwhile, the computed timeline might already be stale
+      this.timelines.remove(userId, timeline);
+    }
+    return new ArrayList<>(computed);
+  }
+
+  @Override
+  public Set<String> getFollowers(String userId) {
+    return this.delegate.getFollowers(userId);
+  }
+
+  @Override
+  public Set<String> getFollowed(String userId) {
+    return this.delegate.getFollowed(userId);
+  }
+
+  @Override
+  public void resetDatabase() {
+    this.delegate.resetDatabase();
+    this.invalidateAll();
+  }
+
+  /**
+   * Drops the cached home timeline of a given user.
+   *
+   * @param userId the id of the user.
+   */
+  public void invalidate(String userId) {
+    this.generation.incrementAndGet();
+    this.timelines.remove(userId);
+  }
+
+  /**
+   * Drops every cached home timeline.
+   */
+  public void invalidateAll() {
+    this.generation.incrementAndGet();
+    this.timelines.clear();
+  }
+
+  /**
+   * Gets the number of cached home timelines.
+   *
+   * @return the number of cached home timelines.
+   */
+  public int size() {
+    return this.timelines.size();
+  }
+
+  /**
+   * Drops the cached home timelines of the followers of a given user, or every cached home
+   * timeline if the wrapped database cannot list the followers.
+   *
+   * @param userId the id of the user.
+   */
+  private void invalidateFollowers(String userId) {
+    Set<String> followers;
+    try {
+      followers = this.delegate.getFollowers(userId);
+    } catch (UnsupportedOperationException e) {
+      this.invalidateAll();
+      return;
+    }
+    this.generation.incrementAndGet();
+    for (String follower : followers) {
+      this.timelines.remove(follower);
+    }
+  }
+
+  /**
+   * Represents a cached home timeline.
+   */
+  private static final class CachedTimeline {
+
+    private final List<Tweet> tweets;
+    private final boolean truncated;
+
+    /**
+     * Creates a cached home timeline.
+     *
+     * @param tweets the tweets of the timeline.
+     * @param truncated if the timeline was cut at the number of tweets asked for.
+     */
+    private CachedTimeline(List<Tweet> tweets, boolean truncated) {
+      this.tweets = new ArrayList<>(tweets);
+      this.truncated = truncated;
+    }
+  }
+}
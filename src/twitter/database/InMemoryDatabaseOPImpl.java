@@ -0,0 +1,337 @@
+package twitter.database;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Represents an implementation of the Twitter database operations that keeps everything in the
+ * memory of the process, without any database server. It behaves like the Redis strategy 2 and
+ * is meant as the fastest baseline for benchmarks.
+ *
+ * DESIGN:
+ * Every user id is interned to an int index the first time it is seen. The follower and followee
+ * relations are kept as growable int arrays of user indices per user. Tweets are stored in a
+ * columnar store (timestamp and tweet object columns) and referred to by their int index.
+ * If a tweet is broadcasted, its index is inserted into the home timeline of every follower of its
+ * author. Each home timeline is a fixed-capacity int array of tweet indices kept sorted by
+ * timestamp: once full, a new tweet replaces the oldest one, or is dropped if it is older than all
+ * of them. Reading a home timeline only walks that array and returns the stored tweet objects.
+ * This class is not thread safe.
+ */
+public class InMemoryDatabaseOPImpl implements DatabaseOP {
+
+  /**
+   * The max number of tweets kept in each home timeline when no capacity is given.
+   */
+  public static final int DEFAULT_TIMELINE_CAPACITY = 100;
+
+  private static final int[] EMPTY = new int[0];
+
+  private final int timelineCapacity;
+
+  // User store
+  private Map<String, Integer> userIndex;
+  private String[] userIds;
+  private int numUsers;
+  private int[][] followers;
+  private int[] followerCounts;
+  private int[][] followees;
+  private int[] followeeCounts;
+  private int[][] timelines;
+  private int[] timelineSizes;
+
+  // Tweet store
+  private long[] tweetTimestamps;
+  private Tweet[] tweetValues;
+  private int numTweets;
+
+  /**
+   * Creates an empty database whose home timelines hold at most
+   * {@code DEFAULT_TIMELINE_CAPACITY} tweets.
+   */
+  public InMemoryDatabaseOPImpl() {
+    this(DEFAULT_TIMELINE_CAPACITY);
+  }
+
+  /**
+   * Creates an empty database whose home timelines hold at most a given number of tweets.
+   *
+   * @param timelineCapacity the max number of tweets in a home timeline.
+   */
+  public InMemoryDatabaseOPImpl(int timelineCapacity) {
+    if (timelineCapacity < 1) {
+      throw new IllegalArgumentException("The timeline capacity has to be bigger than 0");
+    }
+    this.timelineCapacity = timelineCapacity;
+    this.resetDatabase();
+  }
+
+  @Override
+  public void addTweet(Tweet t) {
+    this.checkNulls(t);
+    this.addTweet(t, false);
+  }
+
+  @Override
+  public void addTweet(String userId, Calendar datetime, String message) {
+    this.checkNulls(userId, datetime, message);
+    this.addTweet(new Tweet(userId, datetime, message), false);
+  }
+
+  /**
+   * Adds a given tweet and if broadcast is {@code true}, inserts it into the home timeline of all
+   * the followers of the tweet author.
+   *
+   * @param t the tweet to be added.
+   * @param broadcast if it has to be broadcasted to the followers.
+   */
+  public void addTweet(Tweet t, boolean broadcast) {
+    this.checkNulls(t);
+    int author = this.intern(t.getUserId());
+    if (this.numTweets == this.tweetValues.length) {
+      int capacity = this.numTweets * 2;
+      this.tweetTimestamps = Arrays.copyOf(this.tweetTimestamps, capacity);
+      this.tweetValues = Arrays.copyOf(this.tweetValues, capacity);
+    }
+    int tweet = this.numTweets++;
+    this.tweetTimestamps[tweet] = t.getTimestamp();
+    this.tweetValues[tweet] = t;
+
+    if (broadcast) {
+      int[] targets = this.followers[author];
+      for (int i = 0; i < this.followerCounts[author]; i++) {
+        this.insertIntoTimeline(targets[i], tweet);
+      }
+    }
+  }
+
+  /**
+   * Inserts a tweet into the home timeline of a user, keeping the timeline sorted from the oldest
+   * to the most recent tweet and within its capacity.
+   *
+   * @param user the index of the user.
+   * @param tweet the index of the tweet.
+   */
+  private void insertIntoTimeline(int user, int tweet) {
+    int[] timeline = this.timelines[user];
+    if (timeline == EMPTY) {
+      timeline = new int[this.timelineCapacity];
+      this.timelines[user] = timeline;
+    }
+    long timestamp = this.tweetTimestamps[tweet];
+    int size = this.timelineSizes[user];
+    int position;
+    if (size < this.timelineCapacity) {
+      position = size;
+      this.timelineSizes[user] = size + 1;
+    }
+    else if (timestamp > this.tweetTimestamps[timeline[0]]) {
+      // Drop the oldest tweet to make room
+      System.arraycopy(timeline, 1, timeline, 0, size - 1);
+      position = size - 1;
+    }
+    else {
+      return;
+    }
+    while (position > 0 && this.tweetTimestamps[timeline[position - 1]] > timestamp) {
+      timeline[position] = timeline[position - 1];
+      position--;
+    }
+    timeline[position] = tweet;
+  }
+
+  @Override
+  public void addTweets(String filePath) {
+    this.addTweets(filePath, false);
+  }
+
+  /**
+   * Adds all the tweets from a given file path and if broadcast is {@code true}, inserts each of
+   * them into the home timeline of all the followers of its author.
+   *
+   * @param filePath the path to the file to be read.
+   * @param broadcast if it has to be broadcasted to the followers.
+   */
+  public void addTweets(String filePath, boolean broadcast) {
+    this.checkNulls(filePath);
+    try (DatasetReader reader = new DatasetReader(filePath)) {
+      for (Tweet t = reader.nextTweet(); t != null; t = reader.nextTweet()) {
+        this.addTweet(t, broadcast);
+      }
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
+  }
+
+  @Override
+  public void addFollower(String followerId, String followeeId) {
+    this.checkNulls(followerId, followeeId);
+    int follower = this.intern(followerId);
+    int followee = this.intern(followeeId);
+    // Relations are a set, as in Redis. The followees of a user are few, so a scan is enough
+    int[] followed = this.followees[follower];
+    for (int i = 0; i < this.followeeCounts[follower]; i++) {
+      if (followed[i] == followee) {
+        return;
+      }
+    }
+    this.followees[follower] = append(followed, this.followeeCounts[follower]++, followee);
+    this.followers[followee] = append(this.followers[followee],
+        this.followerCounts[followee]++, follower);
+  }
+
+  /**
+   * Stores a value at a given position of an int array, growing the array if needed.
+   *
+   * @param array the array.
+   * @param position the position to store the value at.
+   * @param value the value.
+   * @return the array holding the value.
+   */
+  private static int[] append(int[] array, int position, int value) {
+    if (position == array.length) {
+      array = Arrays.copyOf(array, Math.max(4, array.length * 2));
+    }
+    array[position] = value;
+    return array;
+  }
+
+  @Override
+  public void addFollowers(String filePath) {
+    this.checkNulls(filePath);
+    try (DatasetReader reader = new DatasetReader(filePath)) {
+      for (String[] pair = reader.nextFollower(); pair != null; pair = reader.nextFollower()) {
+        this.addFollower(pair[0], pair[1]);
+      }
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
+  }
+
+  @Override
+  public List<Tweet> getHomeTM(String userId) {
+    this.checkNulls(userId);
+    return this.getHomeTM(userId, 10);
+  }
+
+  /**
+   * Returns at most the capacity of the home timelines, even if more tweets are asked for.
+   */
+  @Override
+  public List<Tweet> getHomeTM(String userId, int numOfTweets) {
+    this.checkNulls(userId);
+    if (numOfTweets < 1) {
+      throw new IllegalArgumentException("The number of tweets has to be bigger than 0");
+    }
+    Integer user = this.userIndex.get(userId);
+    if (user == null) {
+      return new ArrayList<>();
+    }
+    int[] timeline = this.timelines[user];
+    int size = this.timelineSizes[user];
+    int count = Math.min(size, numOfTweets);
+    List<Tweet> result = new ArrayList<>(count);
+    for (int i = size - 1; i >= size - count; i--) {
+      result.add(this.tweetValues[timeline[i]]);
+    }
+    return result;
+  }
+
+  @Override
+  public Set<String> getFollowers(String userId) {
+    this.checkNulls(userId);
+    return this.toUserIds(userId, this.followers, this.followerCounts);
+  }
+
+  @Override
+  public Set<String> getFollowed(String userId) {
+    this.checkNulls(userId);
+    return this.toUserIds(userId, this.followees, this.followeeCounts);
+  }
+
+  /**
+   * Converts the adjacency list of a user into a set of user ids.
+   *
+   * @param userId the id of the user.
+   * @param adjacency the adjacency lists of all the users.
+   * @param counts the sizes of the adjacency lists of all the users.
+   * @return the set of user ids.
+   */
+  private Set<String> toUserIds(String userId, int[][] adjacency, int[] counts) {
+    Set<String> result = new HashSet<>();
+    Integer user = this.userIndex.get(userId);
+    if (user != null) {
+      for (int i = 0; i < counts[user]; i++) {
+        result.add(this.userIds[adjacency[user][i]]);
+      }
+    }
+    return result;
+  }
+
+  @Override
+  public void resetDatabase() {
+    this.userIndex = new HashMap<>();
+    this.userIds = new String[1024];
+    this.numUsers = 0;
+    this.followers = new int[1024][];
+    this.followerCounts = new int[1024];
+    this.followees = new int[1024][];
+    this.followeeCounts = new int[1024];
+    this.timelines = new int[1024][];
+    this.timelineSizes = new int[1024];
+
+    this.tweetTimestamps = new long[1024];
+    this.tweetValues = new Tweet[1024];
+    this.numTweets = 0;
+  }
+
+  /**
+   * Gets the index of a given user id, assigning it the next free index if it is new.
+   *
+   * @param userId the id of the user.
+   * @return the index of the user.
+   */
+  private int intern(String userId) {
+    Integer index = this.userIndex.get(userId);
+    if (index != null) {
+      return index;
+    }
+    if (this.numUsers == this.userIds.length) {
+      int capacity = this.numUsers * 2;
+      this.userIds = Arrays.copyOf(this.userIds, capacity);
+      this.followers = Arrays.copyOf(this.followers, capacity);
+      this.followerCounts = Arrays.copyOf(this.followerCounts, capacity);
+      this.followees = Arrays.copyOf(this.followees, capacity);
+      this.followeeCounts = Arrays.copyOf(this.followeeCounts, capacity);
+      this.timelines = Arrays.copyOf(this.timelines, capacity);
+      this.timelineSizes = Arrays.copyOf(this.timelineSizes, capacity);
+    }
+    int user = this.numUsers++;
+    this.userIndex.put(userId, user);
+    this.userIds[user] = userId;
+    this.followers[user] = EMPTY;
+    this.followees[user] = EMPTY;
+    this.timelines[user] = EMPTY;
+    return user;
+  }
+
+  /**
+   * Helper method to check for null values in a given list of strings.
+   *
+   * @param s the list of arguments to check.
+   */
+  private void checkNulls(Object... s) {
+    for (Object arg : s) {
+      if (arg == null) {
+        throw new IllegalArgumentException("Given argument is null");
+      }
+    }
+  }
+}
@@ -0,0 +1,207 @@
+package twitter.database;
+
+/**
+ * Represents the per-stage measures of a run of an {@link IngestPipeline}.
+ * The parser stage is measured by the time spent reading records and the time spent blocked on
+ * full writer queues (backpressure), summed over all the parsers when there are several. Every
+ * writer stage is measured by the records it wrote, the time spent writing them and the time
+ * spent waiting for chunks (starvation).
+ * Instances are filled by the pipeline and are read only once the run is over.
+ */
+public class IngestMetrics {
+
+  private final long[] written;
+  private final long[] writeNanos;
+  private final long[] idleNanos;
+  private long records;
+  private long parseNanos;
+  private long parserBlockedNanos;
+  private long elapsedNanos;
+
+  /**
+   * Creates empty measures for a given number of writers.
+   *
+   * @param numWriters the number of writers.
+   */
+  IngestMetrics(int numWriters) {
+    this.written = new long[numWriters];
+    this.writeNanos = new long[numWriters];
+    this.idleNanos = new long[numWriters];
+  }
+
+  /**
+   * Records the work of a parser, adding it to the work of the other parsers.
+   *
+   * @param records the number of records parsed.
+   * @param parseNanos the time spent parsing.
+   * @param blockedNanos the time spent waiting on full queues.
+   */
+  synchronized void parsed(long records, long parseNanos, long blockedNanos) {
+    this.records += records;
+    this.parseNanos += parseNanos;
+    this.parserBlockedNanos += blockedNanos;
+  }
+
+  /**
+   * Records a chunk written by a writer. Only called by the thread of that writer.
+   *
+   * @param writer the index of the writer.
+   * @param size the number of records in the chunk.
+   * @param nanos the time spent writing the chunk.
+   */
+  void wrote(int writer, int size, long nanos) {
+    this.written[writer] += size;
+    this.writeNanos[writer] += nanos;
+  }
+
+  /**
+   * Records the time a writer waited for a chunk. Only called by the thread of that writer.
+   *
+   * @param writer the index of the writer.
+   * @param nanos the time spent waiting.
+   */
+  void waited(int writer, long nanos) {
+    this.idleNanos[writer] += nanos;
+  }
+
+  /**
+   * Records the total duration of the run.
+   *
+   * @param nanos the duration of the run.
+   */
+  void finished(long nanos) {
+    this.elapsedNanos = nanos;
+  }
+
+  /**
+   * Gets the number of records parsed.
+   *
+   * @return the number of records.
+   */
+  public long getRecords() {
+    return this.records;
+  }
+
+  /**
+   * Gets the total duration of the run.
+   *
+   * @return the duration in milliseconds.
+   */
+  public long getElapsedMillis() {
+    return this.elapsedNanos / 1000000;
+  }
+
+  /**
+   * Gets the time the parser spent reading records.
+   *
+   * @return the time in milliseconds.
+   */
+  public long getParseMillis() {
+    return this.parseNanos / 1000000;
+  }
+
+  /**
+   * Gets the time the parser spent blocked because the queue of a writer was full.
+   *
+   * @return the time in milliseconds.
+   */
+  public long getParserBlockedMillis() {
+    return this.parserBlockedNanos / 1000000;
+  }
+
+  /**
+   * Gets the number of writers.
+   *
+   * @return the number of writers.
+   */
+  public int getNumWriters() {
+    return this.written.length;
+  }
+
+  /**
+   * Gets the number of records written by a writer.
+   *
+   * @param writer the index of the writer.
+   * @return the number of records.
+   */
+  public long getWritten(int writer) {
+    return this.written[writer];
+  }
+
+  /**
+   * Gets the time a writer spent writing.
+   *
+   * @param writer the index of the writer.
+   * @return the time in milliseconds.
+   */
+  public long getWriteMillis(int writer) {
+    return this.writeNanos[writer] / 1000000;
+  }
+
+  /**
+   * Gets the time a writer spent waiting for chunks.
+   *
+   * @param writer the index of the writer.
+   * @return the time in milliseconds.
+   */
+  public long getWriterIdleMillis(int writer) {
+    return this.idleNanos[writer] / 1000000;
+  }
+
+  /**
+   * Gets the number of records parsed per second of parsing, by a single parser on average.
+   *
+   * @return the throughput of the parser stage.
+   */
+  public long getParseRate() {
+    return rate(this.records, this.parseNanos);
+  }
+
+  /**
+   * Gets the number of records written per second of writing, summed over all the writers.
+   *
+   * @return the throughput of the writer stages.
+   */
+  public long getWriteRate() {
+    long total = 0;
+    for (int i = 0; i < this.written.length; i++) {
+      total += rate(this.written[i], this.writeNanos[i]);
+    }
+    return total;
+  }
+
+  /**
+   * Gets the number of records ingested per second of the run.
+   *
+   * @return the throughput of the whole pipeline.
+   */
+  public long getRate() {
+    return rate(this.records, this.elapsedNanos);
+  }
+
+  /**
+   * Computes a number of records per second.
+   *
+   * @param records the number of records.
+   * @param nanos the time taken.
+   * @return the records per second.
+   */
+  private static long rate(long records, long nanos) {
+    return nanos == 0 ? 0 : (long) (records * 1e9 / nanos);
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder result = new StringBuilder();
+    result.append(String.format("%d records in %d ms (%d records/sec)%n",
+        this.records, this.getElapsedMillis(), this.getRate()));
+    result.append(String.format("parser: %d ms parsing (%d records/sec), %d ms blocked%n",
+        this.getParseMillis(), this.getParseRate(), this.getParserBlockedMillis()));
+    for (int i = 0; i < this.written.length; i++) {
+      result.append(String.format("writer %d: %d records, %d ms writing (%d records/sec),"
+              + " %d ms idle%n", i, this.written[i], this.getWriteMillis(i),
+          rate(this.written[i], this.writeNanos[i]), this.getWriterIdleMillis(i)));
+    }
+    return result.toString();
+  }
+}
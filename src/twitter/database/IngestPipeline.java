@@ -0,0 +1,421 @@
+package twitter.database;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Represents a producer/consumer pipeline that loads records into a database.
+ * The parser stage runs on the calling thread: it pulls records from a source and groups them
+ * into chunks, each one handed to one of N writer stages through a bounded queue. A run can also
+ * have several sources, e.g. the parts of a split file, each one with its own parser thread.
+ * Every writer runs on its own thread with its own {@link Writer} and writes the chunks it
+ * receives in order.
+ * When the queue of a writer is full the parser blocks, so that parsing never runs too far ahead
+ * of the database. If a partitioner is given, all the records with the same partition key are
+ * written by the same writer in the order of the source; otherwise chunks go to the writers in
+ * turn. Every run returns the per-stage {@link IngestMetrics}.
+ *
+ * @param <T> the type of the records.
+ */
+public class IngestPipeline<T> {
+
+  /**
+   * The number of records handed to a writer at once when no chunk size is given.
+   */
+  public static final int DEFAULT_CHUNK_SIZE = 1000;
+
+  /**
+   * The number of chunks that can wait in the queue of each writer when no capacity is given.
+   */
+  public static final int DEFAULT_QUEUE_CAPACITY = 4;
+
+  /**
+   * Represents the source of the records, read by the parser stage.
+   *
+   * @param <T> the type of the records.
+   */
+  public interface Source<T> {
+
+    /**
+     * Reads the next record.
+     *
+     * @return the record, or {@code null} if there are no more records.
+     * @throws IOException if the record cannot be read.
+     */
+    T next() throws IOException;
+  }
+
+  /**
+   * Represents a writer stage. Each writer is only used by its own thread, and is closed when the
+   * run is over.
+   *
+   * @param <T> the type of the records.
+   */
+  public interface Writer<T> extends AutoCloseable {
+
+    /**
+     * Writes a chunk of records into the database.
+     *
+     * @param chunk the records.
+     */
+    void write(List<T> chunk);
+
+    @Override
+    default void close() {
+    }
+  }
+
+  private final int numWriters;
+  private final int chunkSize;
+  private final int queueCapacity;
+  private final Function<? super T, ?> partitioner;
+
+  /**
+   * Creates a pipeline with a given number of writers, the default chunk size and queue capacity
+   * and no partitioner.
+   *
+   * @param numWriters the number of writers.
+   */
+  public IngestPipeline(int numWriters) {
+    this(numWriters, DEFAULT_CHUNK_SIZE, DEFAULT_QUEUE_CAPACITY, null);
+  }
+
+  /**
+   * Creates a pipeline.
+   *
+   * @param numWriters the number of writers.
+   * @param chunkSize the number of records handed to a writer at once.
+   * @param queueCapacity the number of chunks that can wait in the queue of each writer.
+   * @param partitioner gives the partition key of a record, {@code null} to hand the chunks to
+   *                    the writers in turn.
+   */
+  public IngestPipeline(int numWriters, int chunkSize, int queueCapacity,
+      Function<? super T, ?> partitioner) {
+    if (numWriters < 1) {
+      throw new IllegalArgumentException("The number of writers has to be bigger than 0");
+    }
+    if (chunkSize < 1) {
+      throw new IllegalArgumentException("The chunk size has to be bigger than 0");
+    }
+    if (queueCapacity < 1) {
+      throw new IllegalArgumentException("The queue capacity has to be bigger than 0");
+    }
+    this.numWriters = numWriters;
+    this.chunkSize = chunkSize;
+    this.queueCapacity = queueCapacity;
+    this.partitioner = partitioner;
+  }
+
+  /**
+   * Gets the number of writers of the pipeline.
+   *
+   * @return the number of writers.
+   */
+  public int getNumWriters() {
+    return this.numWriters;
+  }
+
+  /**
+   * Loads all the records of a source with writers created by a given factory, one per writer
+   * thread, on that thread.
+   *
+   * @param source the source of the records.
+   * @param writers creates the writers.
+   * @return the measures of the run.
+   * @throws IOException if the source cannot be read.
+   * @throws IllegalStateException if a writer fails or the thread is interrupted.
+   */
+  public IngestMetrics run(Source<? extends T> source, Supplier<? extends Writer<T>> writers)
+      throws IOException {
+    return this.run(Collections.singletonList(source), writers);
+  }
+
+  /**
+   * Loads all the records of several sources, such as the parts of a split file, with one parser
+   * per source: the first one on the calling thread, the others on their own threads. All the
+   * parsers share the writers. The records of a partition key keep the order of their source, but
+   * records of the same key from different sources can be written in any order.
+   *
+   * @param sources the sources of the records.
+   * @param writers creates the writers.
+   * @return the measures of the run, with the parser measures summed over all the parsers.
+   * @throws IOException if a source cannot be read.
+   * @throws IllegalStateException if a writer fails or the thread is interrupted.
+   */
+  public IngestMetrics run(List<? extends Source<? extends T>> sources,
+      Supplier<? extends Writer<T>> writers) throws IOException {
+    if (sources.isEmpty()) {
+      throw new IllegalArgumentException("There has to be at least one source");
+    }
+    IngestMetrics metrics = new IngestMetrics(this.numWriters);
+    long start = System.nanoTime();
+    ExecutorService executor =
+        Executors.newFixedThreadPool(this.numWriters + sources.size() - 1);
+    try {
+      List<BlockingQueue<List<T>>> queues = new ArrayList<>();
+      List<Future<?>> workers = new ArrayList<>();
+      for (int i = 0; i < this.numWriters; i++) {
+        BlockingQueue<List<T>> queue = new ArrayBlockingQueue<>(this.queueCapacity);
+        queues.add(queue);
+        int index = i;
+        workers.add(executor.submit(() -> {
+          this.drain(queue, writers, index, metrics);
+          return null;
+        }));
+      }
+
+      List<Future<?>> parsers = new ArrayList<>();
+      for (Source<? extends T> source : sources.subList(1, sources.size())) {
+        parsers.add(executor.submit(() -> {
+          this.parse(source, queues, workers, metrics);
+          return null;
+        }));
+      }
+      this.parse(sources.get(0), queues, workers, metrics);
+      for (Future<?> parser : parsers) {
+        try {
+          parser.get();
+        } catch (ExecutionException e) {
+          if (e.getCause() instanceof IOException) {
+            throw (IOException) e.getCause();
+          }
+          throw e;
+        }
+      }
+
+      long blockedNanos = 0;
+      for (int i = 0; i < this.numWriters; i++) {
+        // An empty chunk tells the writer that the parsing is over
+        blockedNanos += this.handOff(queues.get(i), Collections.<T>emptyList(), workers.get(i));
+      }
+      metrics.parsed(0, 0, blockedNanos);
+      for (Future<?> worker : workers) {
+        worker.get();
+      }
+    } catch (ExecutionException e) {
+      throw new IllegalStateException("Ingest failed", e.getCause());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while ingesting");
+    } finally {
+      executor.shutdownNow();
+    }
+    metrics.finished(System.nanoTime() - start);
+    return metrics;
+  }
+
+  /**
+   * Reads all the records of a source, grouping them into chunks handed to the writers.
+   *
+   * @param source the source of the records.
+   * @param queues the queues of the writers.
+   * @param workers the threads of the writers.
+   * @param metrics the measures to update.
+   * @throws IOException if the source cannot be read.
+   * @throws InterruptedException if the thread is interrupted while handing a chunk off.
+   * @throws ExecutionException if a writer failed.
+   */
+  private void parse(Source<? extends T> source, List<BlockingQueue<List<T>>> queues,
+      List<Future<?>> workers, IngestMetrics metrics)
+      throws IOException, InterruptedException, ExecutionException {
+    List<List<T>> buffers = new ArrayList<>();
+    for (int i = 0; i < this.numWriters; i++) {
+      buffers.add(new ArrayList<>(this.chunkSize));
+    }
+    long records = 0;
+    long parseNanos = 0;
+    long blockedNanos = 0;
+    int next = 0;
+    while (true) {
+      long before = System.nanoTime();
+      T record = source.next();
+      parseNanos += System.nanoTime() - before;
+      if (record == null) {
+        break;
+      }
+      records++;
+      int worker = next;
+      if (this.partitioner != null) {
+        worker = Math.floorMod(this.partitioner.apply(record).hashCode(), this.numWriters);
+      }
+      List<T> buffer = buffers.get(worker);
+      buffer.add(record);
+      if (buffer.size() == this.chunkSize) {
+        blockedNanos += this.handOff(queues.get(worker), buffer, workers.get(worker));
+        buffers.set(worker, new ArrayList<>(this.chunkSize));
+        next = (next + 1) % this.numWriters;
+      }
+    }
+    for (int i = 0; i < this.numWriters; i++) {
+      if (!buffers.get(i).isEmpty()) {
+        blockedNanos += this.handOff(queues.get(i), buffers.get(i), workers.get(i));
+      }
+    }
+    metrics.parsed(records, parseNanos, blockedNanos);
+  }
+
+  /**
+   * Writes the chunks of a queue with a new writer until the empty chunk is received.
+   *
+   * @param queue the queue of the writer.
+   * @param writers creates the writer.
+   * @param index the index of the writer.
+   * @param metrics the measures to update.
+   * @throws InterruptedException if the thread is interrupted while waiting for a chunk.
+   */
+  private void drain(BlockingQueue<List<T>> queue, Supplier<? extends Writer<T>> writers,
+      int index, IngestMetrics metrics) throws InterruptedException {
+    try (Writer<T> writer = writers.get()) {
+      while (true) {
+        long before = System.nanoTime();
+        List<T> chunk = queue.take();
+        long taken = System.nanoTime();
+        metrics.waited(index, taken - before);
+        if (chunk.isEmpty()) {
+          return;
+        }
+        writer.write(chunk);
+        metrics.wrote(index, chunk.size(), System.nanoTime() - taken);
+      }
+    }
+  }
+
+  /**
+   * Hands a chunk of records to a writer, waiting while its queue is full. Fails if the writer
+   * stopped, so the parser never waits on a writer that will not drain its queue anymore.
+   *
+   * @param queue the queue of the writer.
+   * @param chunk the chunk of records.
+   * @param worker the thread of the writer.
+   * @return the time spent waiting in nanoseconds.
+   */
+  private long handOff(BlockingQueue<List<T>> queue, List<T> chunk, Future<?> worker)
+      throws InterruptedException, ExecutionException {
+    long before = System.nanoTime();
+    while (!queue.offer(chunk, 100, TimeUnit.MILLISECONDS)) {
+      if (worker.isDone()) {
+        worker.get();
+        throw new IllegalStateException("Ingest writer stopped early");
+      }
+    }
+    return System.nanoTime() - before;
+  }
+
+  /**
+   * Loads all the tweets of a file into a database with a given number of writers, each one
+   * calling {@code addTweet} for every tweet of its chunks. The tweets of an author are always
+   * written by the same writer, in the order of the file. With more than one writer the database
+   * has to be thread safe.
+   *
+   * @param filePath the path to the file to be read.
+   * @param op the database to load the tweets into.
+   * @param numWriters the number of writers.
+   * @return the measures of the run.
+   */
+  public static IngestMetrics addTweets(String filePath, DatabaseOP op, int numWriters) {
+    return addTweets(filePath, op, 1, numWriters);
+  }
+
+  /**
+   * Loads all the tweets of a file into a database with a given number of parsers and writers.
+   * A newline-delimited file is split into one part per parser; a json array is always read by a
+   * single parser. With more than one parser the tweets of an author are still written by the
+   * same writer, but not necessarily in the order of the file.
+   *
+   * @param filePath the path to the file to be read.
+   * @param op the database to load the tweets into.
+   * @param numParsers the number of parsers.
+   * @param numWriters the number of writers.
+   * @return the measures of the run.
+   */
+  public static IngestMetrics addTweets(String filePath, DatabaseOP op, int numParsers,
+      int numWriters) {
+    IngestPipeline<Tweet> pipeline = new IngestPipeline<>(numWriters, DEFAULT_CHUNK_SIZE,
+        DEFAULT_QUEUE_CAPACITY, Tweet::getUserId);
+    return pipeline.runSplit(filePath, numParsers, DatasetReader::nextTweet, () -> chunk -> {
+      for (Tweet t : chunk) {
+        op.addTweet(t);
+      }
+    });
+  }
+
+  /**
+   * Loads all the follower-followee relations of a file into a database with a given number of
+   * writers, each one calling {@code addFollower} for every relation of its chunks. With more than
+   * one writer the database has to be thread safe.
+   *
+   * @param filePath the path to the file to be read.
+   * @param op the database to load the relations into.
+   * @param numWriters the number of writers.
+   * @return the measures of the run.
+   */
+  public static IngestMetrics addFollowers(String filePath, DatabaseOP op, int numWriters) {
+    return addFollowers(filePath, op, 1, numWriters);
+  }
+
+  /**
+   * Loads all the follower-followee relations of a file into a database with a given number of
+   * parsers and writers. A newline-delimited file is split into one part per parser; a json array
+   * is always read by a single parser.
+   *
+   * @param filePath the path to the file to be read.
+   * @param op the database to load the relations into.
+   * @param numParsers the number of parsers.
+   * @param numWriters the number of writers.
+   * @return the measures of the run.
+   */
+  public static IngestMetrics addFollowers(String filePath, DatabaseOP op, int numParsers,
+      int numWriters) {
+    IngestPipeline<String[]> pipeline = new IngestPipeline<>(numWriters);
+    return pipeline.runSplit(filePath, numParsers, DatasetReader::nextFollower, () -> chunk -> {
+      for (String[] pair : chunk) {
+        op.addFollower(pair[0], pair[1]);
+      }
+    });
+  }
+
+  /**
+   * Loads all the records of a dataset file, split with {@link DatasetReader#split} into one
+   * source per parser.
+   *
+   * @param filePath the path to the file to be read.
+   * @param numParsers the number of parsers.
+   * @param parser reads the next record of a part of the file.
+   * @param writers creates the writers.
+   * @return the measures of the run, or {@code null} if the file cannot be read.
+   */
+  IngestMetrics runSplit(String filePath, int numParsers, DatasetReader.RecordParser<T> parser,
+      Supplier<? extends Writer<T>> writers) {
+    List<DatasetReader> splits = new ArrayList<>();
+    try {
+      splits.addAll(DatasetReader.split(filePath, numParsers));
+      List<Source<T>> sources = new ArrayList<>();
+      for (DatasetReader split : splits) {
+        sources.add(() -> parser.read(split));
+      }
+      return this.run(sources, writers);
+    } catch (IOException e) {
+      e.printStackTrace();
+      return null;
+    } finally {
+      for (DatasetReader split : splits) {
+        try {
+          split.close();
+        } catch (IOException e) {
+          e.printStackTrace();
+        }
+      }
+    }
+  }
+}
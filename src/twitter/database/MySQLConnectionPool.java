@@ -0,0 +1,127 @@
+package twitter.database;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Represents a fixed size pool of JDBC connections to the same database.
+ * All the connections are opened upon construction. A thread borrows a connection for the
+ * duration of a single operation and then releases it; when all the connections are borrowed,
+ * the next thread waits until one is released, for at most {@code BORROW_TIMEOUT_SECONDS}.
+ * A connection released closed (e.g. after a network failure) stays in the pool and is replaced
+ * by a new one when it is next borrowed; if it cannot be replaced yet, the closed connection goes
+ * back to the pool, so a failed reconnect never shrinks it.
+ * This class is thread safe.
+ */
+class MySQLConnectionPool {
+
+  static final long BORROW_TIMEOUT_SECONDS = 60;
+
+  private final String connectionPath;
+  private final BlockingQueue<Connection> idle;
+  private final List<Connection> all;
+  private volatile boolean closed;
+
+  /**
+   * Opens a given number of connections to a given database.
+   *
+   * @param connectionPath the connection path to the database.
+   * @param size the number of connections.
+   * @throws SQLException if a connection cannot be opened.
+   */
+  MySQLConnectionPool(String connectionPath, int size) throws SQLException {
+    if (size < 1) {
+      throw new IllegalArgumentException("The size of the pool has to be bigger than 0");
+    }
+    this.connectionPath = connectionPath;
+    this.idle = new ArrayBlockingQueue<>(size);
+    this.all = new ArrayList<>(size);
+    for (int i = 0; i < size; i++) {
+      Connection connection = DriverManager.getConnection(connectionPath);
+      this.all.add(connection);
+      this.idle.add(connection);
+    }
+  }
+
+  /**
+   * Borrows a connection, waiting for one to be released if all of them are in use. A closed
+   * connection is replaced by a new one before being handed out.
+   *
+   * @return the connection, to be given back with {@code release}.
+   * @throws IllegalStateException if the pool is closed, no connection is released in time, a
+   *         closed connection cannot be replaced or the thread is interrupted.
+   */
+  Connection borrow() {
+    if (this.closed) {
+      throw new IllegalStateException("Connection is closed");
+    }
+    Connection connection;
+    try {
+      connection = this.idle.poll(BORROW_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while waiting for a connection");
+    }
+    if (connection == null) {
+      throw new IllegalStateException("No connection was released in time");
+    }
+    try {
+      if (connection.isClosed()) {
+        connection = this.reopen(connection);
+      }
+    } catch (SQLException e) {
+      // The slot stays in the pool, the next borrow tries to reopen it again
+      this.idle.add(connection);
+      throw new IllegalStateException(e.getMessage());
+    }
+    return connection;
+  }
+
+  /**
+   * Replaces a closed connection of the pool with a new one.
+   *
+   * @param connection the closed connection.
+   * @return the new connection.
+   * @throws SQLException if the new connection cannot be opened, or the pool has been closed.
+   */
+  private Connection reopen(Connection connection) throws SQLException {
+    synchronized (this.all) {
+      if (this.closed) {
+        throw new SQLException("Connection is closed");
+      }
+      Connection replacement = DriverManager.getConnection(this.connectionPath);
+      this.all.remove(connection);
+      this.all.add(replacement);
+      return replacement;
+    }
+  }
+
+  /**
+   * Gives back a borrowed connection, even a closed one, which the next borrow replaces.
+   *
+   * @param connection the connection.
+   */
+  void release(Connection connection) {
+    this.idle.add(connection);
+  }
+
+  /**
+   * Closes all the connections of the pool, including the borrowed ones.
+   *
+   * @throws SQLException if a connection cannot be closed.
+   */
+  void close() throws SQLException {
+    this.closed = true;
+    synchronized (this.all) {
+      for (Connection connection : this.all) {
+        connection.close();
+      }
+    }
+  }
+}
@@ -1,5 +1,7 @@
 package twitter.database;
 
+import java.util.List;
+
 /**
  * Represents an interface to connect to a MySQL database.
  */
@@ -13,6 +15,50 @@ public interface MySQLDatabaseOP extends DatabaseOP {
    */
   void connect(String driver, String connectionPath);
 
+  /**
+   * Sets the number of rows that {@code addTweets} and {@code addFollowers} send and commit
+   * together.
+   *
+   * @param batchSize the number of rows in each batch.
+   */
+  void setBatchSize(int batchSize);
+
+  /**
+   * Sets if {@code addTweets} and {@code addFollowers} stream the files to the database with
+   * {@code LOAD DATA LOCAL INFILE} instead of batches of inserts. The server has to allow it
+   * ({@code local_infile} enabled), and the driver only allows it on connections opened after it
+   * is enabled: a server can then ask for any file readable by the client, so only enable it for
+   * trusted servers.
+   *
+   * @param enabled if the local infile load is used from now on.
+   * @throws IllegalStateException if enabled after {@code connect} without having been enabled
+   *         before it.
+   */
+  void setLocalInfileLoad(boolean enabled);
+
+  /**
+   * Sets the query with which the home timelines are computed.
+   *
+   * @param mode the home timeline mode to use from now on.
+   */
+  void setHomeTMMode(MySQLHomeTMMode mode);
+
+  /**
+   * Runs {@code EXPLAIN} on the current home timeline query of a given user and checks that every
+   * table is accessed through an index rather than scanned. With the {@code PUSH} strategy and the
+   * {@code PER_FOLLOWEE} mode the tweets have to be read in date order by a backward index scan,
+   * so a filesort of the rows of a table also fails the check. The {@code JOIN} mode is exempt:
+   * it merges the tweets of all the followees, which cannot be read in date order from one index,
+   * so its plan always sorts the whole join.
+   *
+   * @param userId the id of the user.
+   * @param numOfTweets the number of tweets of the home timeline.
+   * @return one line per table of the plan, with its access type, index, rows and extra notes.
+   * @throws IllegalStateException if a table is scanned in full, or its rows sorted when they
+   *         could be read in order.
+   */
+  List<String> explainHomeTM(String userId, int numOfTweets);
+
   /**
    * Closes the connection to the database.
    */
@@ -1,38 +1,205 @@
 package twitter.database;
 
-import com.google.gson.stream.JsonReader;
-import java.io.FileReader;
+import com.mysql.cj.jdbc.JdbcStatement;
 import java.io.IOException;
 import java.sql.Connection;
-import java.sql.DriverManager;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.sql.Timestamp;
-import java.text.SimpleDateFormat;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Calendar;
-import java.util.Date;
 import java.util.List;
 import java.util.Set;
 
 /**
  * Represents an implementation of database operations specific for MySQL for the Twitter project.
+ * Bulk loads from files reuse a single prepared statement and send the rows in JDBC batches, each
+ * batch committed as one transaction. When connecting to MySQL the driver is asked to rewrite the
+ * batches into multi-row inserts.
+ * Every operation borrows a connection from a pool opened by {@code connect} and uses its own
+ * statements, so that an instance can be shared by threads issuing operations concurrently.
+ * The tables and their indexes are created by {@code connect} if they do not exist yet:
+ * 'tweets' is indexed on (user_id, tweet_ts), so that the tweets of a followee are found already
+ * sorted by date, and 'followers' is indexed on (user_id, follows_id) and on follows_id, so that
+ * the followees and the followers of a user are found without scanning the table. The home
+ * timeline query is a prepared statement, and the driver is asked to cache it server side on each
+ * connection. Which query computes the home timeline depends on the {@link MySQLHomeTMMode},
+ * {@code JOIN} by default.
+ * With the {@code PUSH} {@link MySQLTimelineStrategy} every tweet is also copied at write time into
+ * 'home_timeline', keyed by (user_id, tweet_ts, tweet_id), with a single
+ * {@code INSERT ... SELECT} from 'followers' in the same transaction as the tweet (or as its
+ * batch). The home timeline is then read with a range scan of that key, whatever the mode.
+ * As in the Redis push strategies, following a user does not copy the tweets they already wrote.
+ * When the local infile load is enabled, bulk loads instead convert the json file on the fly into
+ * a tab separated stream fed to {@code LOAD DATA LOCAL INFILE}. If the table is empty, its
+ * secondary indexes are dropped before the load and built once after it.
  */
 public class MySQLDatabaseOPImpl implements MySQLDatabaseOP {
 
-  private Connection connection = null;
-  private Statement statement = null;
-  private PreparedStatement preparedStatement = null;
-  private ResultSet resultSet = null;
+  /**
+   * The number of rows sent and committed together by the bulk loads when no batch size is set.
+   */
+  public static final int DEFAULT_BATCH_SIZE = 1000;
+
+  /**
+   * The number of connections opened by {@code connect} when no pool size is given.
+   */
+  public static final int DEFAULT_POOL_SIZE = 8;
+
+  private static final String CREATE_TWEETS =
+      "CREATE TABLE IF NOT EXISTS tweets ("
+      + "tweet_id BIGINT NOT NULL AUTO_INCREMENT, "
+      + "user_id INT NOT NULL, "
+      + "tweet_ts DATETIME NOT NULL, "
+      + "tweet_text VARCHAR(140) NOT NULL, "
+      + "PRIMARY KEY (tweet_id), "
+      + "INDEX idx_tweets_user_ts (user_id, tweet_ts))";
+
+  private static final String CREATE_FOLLOWERS =
+      "CREATE TABLE IF NOT EXISTS followers ("
+      + "user_id INT NOT NULL, "
+      + "follows_id INT NOT NULL, "
+      + "PRIMARY KEY (user_id, follows_id), "
+      + "INDEX idx_followers_follows (follows_id))";
+
+  private static final String[] TWEETS_SECONDARY_INDEXES = {
+      "idx_tweets_user_ts (user_id, tweet_ts)"};
+
+  private static final String[] FOLLOWERS_SECONDARY_INDEXES = {
+      "idx_followers_follows (follows_id)"};
+
+  private static final String CREATE_HOME_TIMELINE =
+      "CREATE TABLE IF NOT EXISTS home_timeline ("
+      + "user_id INT NOT NULL, "
+      + "tweet_ts DATETIME NOT NULL, "
+      + "tweet_id BIGINT NOT NULL, "
+      + "PRIMARY KEY (user_id, tweet_ts, tweet_id))";
+
+  private static final String FAN_OUT_TWEET =
+      "INSERT IGNORE INTO home_timeline(user_id,tweet_ts,tweet_id) "
+      + "SELECT followers.user_id, ?, ? FROM followers WHERE followers.follows_id = ?";
+
+  private static final String FAN_OUT_TWEETS_SINCE =
+      "INSERT IGNORE INTO home_timeline(user_id,tweet_ts,tweet_id) "
+      + "SELECT followers.user_id, tweets.tweet_ts, tweets.tweet_id "
+      + "FROM tweets JOIN followers ON (followers.follows_id = tweets.user_id) "
+      + "WHERE tweets.tweet_id > ?";
+
+  private static final String HOME_TM_QUERY =
+      "SELECT tweets.user_id, tweets.tweet_ts, tweets.tweet_text "
+      + "FROM followers JOIN tweets ON (tweets.user_id = followers.follows_id) "
+      + "WHERE followers.user_id = ? ORDER BY tweets.tweet_ts DESC LIMIT ?";
+
+  private static final String PER_FOLLOWEE_HOME_TM_QUERY =
+      "SELECT latest.user_id, latest.tweet_ts, latest.tweet_text "
+      + "FROM (SELECT DISTINCT follows_id FROM followers WHERE user_id = ?) AS followees, "
+      + "LATERAL (SELECT tweets.user_id, tweets.tweet_ts, tweets.tweet_text FROM tweets "
+      + "WHERE tweets.user_id = followees.follows_id ORDER BY tweets.tweet_ts DESC LIMIT ?) "
+      + "AS latest "
+      + "ORDER BY latest.tweet_ts DESC LIMIT ?";
+
+  private static final String PUSH_HOME_TM_QUERY =
+      "SELECT tweets.user_id, tweets.tweet_ts, tweets.tweet_text "
+      + "FROM home_timeline JOIN tweets ON (tweets.tweet_id = home_timeline.tweet_id) "
+      + "WHERE home_timeline.user_id = ? ORDER BY home_timeline.tweet_ts DESC LIMIT ?";
+
+  private static final DateTimeFormatter MYSQL_DATETIME =
+      DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss").withZone(ZoneId.systemDefault());
+
+  private final MySQLTimelineStrategy strategy;
+  private final int poolSize;
+  private volatile MySQLConnectionPool pool = null;
+  private volatile int batchSize = DEFAULT_BATCH_SIZE;
+  private volatile MySQLHomeTMMode homeTMMode = MySQLHomeTMMode.JOIN;
+  private volatile boolean localInfileLoad = false;
+  private volatile boolean localInfileAllowed = false;
+
+  /**
+   * Creates a {@code PULL} instance that opens {@code DEFAULT_POOL_SIZE} connections upon
+   * {@code connect}.
+   */
+  public MySQLDatabaseOPImpl() {
+    this(MySQLTimelineStrategy.PULL, DEFAULT_POOL_SIZE);
+  }
+
+  /**
+   * Creates a {@code PULL} instance that opens a given number of connections upon
+   * {@code connect}, which is the max number of operations running at the same time.
+   *
+   * @param poolSize the number of connections.
+   */
+  public MySQLDatabaseOPImpl(int poolSize) {
+    this(MySQLTimelineStrategy.PULL, poolSize);
+  }
+
+  /**
+   * Creates an instance that keeps the home timelines with a given strategy and opens
+   * {@code DEFAULT_POOL_SIZE} connections upon {@code connect}.
+   *
+   * @param strategy the home timeline strategy.
+   */
+  public MySQLDatabaseOPImpl(MySQLTimelineStrategy strategy) {
+    this(strategy, DEFAULT_POOL_SIZE);
+  }
+
+  /**
+   * Creates an instance that keeps the home timelines with a given strategy and opens a given
+   * number of connections upon {@code connect}, which is the max number of operations running at
+   * the same time.
+   *
+   * @param strategy the home timeline strategy.
+   * @param poolSize the number of connections.
+   */
+  public MySQLDatabaseOPImpl(MySQLTimelineStrategy strategy, int poolSize) {
+    if (strategy == null) {
+      throw new IllegalArgumentException("Given argument is null");
+    }
+    if (poolSize < 1) {
+      throw new IllegalArgumentException("The size of the pool has to be bigger than 0");
+    }
+    this.strategy = strategy;
+    this.poolSize = poolSize;
+  }
+
+  @Override
+  public void setBatchSize(int batchSize) {
+    if (batchSize < 1) {
+      throw new IllegalArgumentException("The batch size has to be bigger than 0");
+    }
+    this.batchSize = batchSize;
+  }
+
+  @Override
+  public void setLocalInfileLoad(boolean enabled) {
+    if (enabled && this.pool != null && !this.localInfileAllowed) {
+      throw new IllegalStateException("Local infile load has to be enabled before connect");
+    }
+    this.localInfileLoad = enabled;
+  }
+
+  @Override
+  public void setHomeTMMode(MySQLHomeTMMode mode) {
+    if (mode == null) {
+      throw new IllegalArgumentException("Given argument is null");
+    }
+    this.homeTMMode = mode;
+  }
 
   @Override
   public void addTweet(Tweet t) {
     if (t == null) {
       throw new IllegalArgumentException("Given tweet is null");
     }
-    this.addTweet(t.getUserId(), t.getDatetime(), t.getMessage());
+    if (t.getUserId() == null || t.getMessage() == null) {
+      throw new IllegalArgumentException("Given datetime or message is null");
+    }
+    this.insertTweet(t.getUserId(), t.getTimestamp(), t.getMessage());
   }
 
   @Override
@@ -41,36 +208,288 @@ public class MySQLDatabaseOPImpl implements MySQLDatabaseOP {
     if (userId == null || datetime == null || message == null) {
       throw new IllegalArgumentException("Given datetime or message is null");
     }
+    this.insertTweet(userId, datetime.getTimeInMillis(), message);
+  }
+
+  /**
+   * Inserts a tweet into the tweets table. With the {@code PUSH} strategy, the tweet is also
+   * copied into the home timeline of each follower of its author in the same transaction.
+   *
+   * @param userId the user who wrote the tweet.
+   * @param timestamp the tweet posting date and time in milliseconds from epoch.
+   * @param message the tweet message.
+   */
+  private void insertTweet(String userId, long timestamp, String message) {
+    if (this.strategy == MySQLTimelineStrategy.PUSH) {
+      this.insertAndPushTweet(userId, timestamp, message);
+      return;
+    }
+    Connection connection = this.getPool().borrow();
+    try (PreparedStatement insert = connection.prepareStatement(
+        "INSERT INTO tweets(user_id,tweet_ts,tweet_text) VALUES (?,?,?)")) {
+      insert.setString(1, userId);
+      insert.setString(2, this.dateToMySQLDatetime(timestamp));
+      insert.setString(3, message);
+      insert.executeUpdate();
+    } catch (SQLException e) {
+      e.getErrorCode();
+    } finally {
+      this.pool.release(connection);
+    }
+  }
+
+  /**
+   * Inserts a tweet into the tweets table and copies it into the home timeline of each follower
+   * of its author, in a single transaction.
+   *
+   * @param userId the user who wrote the tweet.
+   * @param timestamp the tweet posting date and time in milliseconds from epoch.
+   * @param message the tweet message.
+   */
+  private void insertAndPushTweet(String userId, long timestamp, String message) {
+    String datetime = this.dateToMySQLDatetime(timestamp);
+    Connection connection = this.getPool().borrow();
     try {
-      if (!this.connection.isClosed()) {
-        this.preparedStatement = this.connection.prepareStatement(
-            "INSERT INTO tweets(user_id,tweet_ts,tweet_text) VALUES (?,?,?)");
-        this.preparedStatement.setString(1, userId);
-        this.preparedStatement.setString(2, this.dateToMySQLDatetime(datetime));
-        this.preparedStatement.setString(3, message);
-        this.preparedStatement.executeUpdate();
-      }
-      else {
-        throw new IllegalStateException("Connection is closed");
+      connection.setAutoCommit(false);
+      try (PreparedStatement insert = connection.prepareStatement(
+              "INSERT INTO tweets(user_id,tweet_ts,tweet_text) VALUES (?,?,?)",
+              Statement.RETURN_GENERATED_KEYS);
+          PreparedStatement fanOut = connection.prepareStatement(FAN_OUT_TWEET)) {
+        insert.setString(1, userId);
+        insert.setString(2, datetime);
+        insert.setString(3, message);
+        insert.executeUpdate();
+        long tweetId;
+        try (ResultSet keys = insert.getGeneratedKeys()) {
+          keys.next();
+          tweetId = keys.getLong(1);
+        }
+        fanOut.setString(1, datetime);
+        fanOut.setLong(2, tweetId);
+        fanOut.setString(3, userId);
+        fanOut.executeUpdate();
+        connection.commit();
+      } catch (SQLException e) {
+        connection.rollback();
+        e.getErrorCode();
+      } finally {
+        connection.setAutoCommit(true);
       }
     } catch (SQLException e) {
       e.getErrorCode();
+    } finally {
+      this.pool.release(connection);
     }
   }
 
   @Override
   public void addTweets(String filePath) {
+    boolean fanOut = this.strategy == MySQLTimelineStrategy.PUSH;
+    if (this.localInfileLoad) {
+      this.loadLocalInfile(filePath, "tweets", "user_id,tweet_ts,tweet_text", this::readTweetRow,
+          TWEETS_SECONDARY_INDEXES, fanOut);
+    }
+    else {
+      this.loadBatched(filePath,
+          "INSERT INTO tweets(user_id,tweet_ts,tweet_text) VALUES (?,?,?)", this::readTweetRow,
+          fanOut);
+    }
+  }
+
+  /**
+   * Reads all the records of a json array file and inserts them with a single prepared statement
+   * in batches of the configured size. Auto-commit is turned off during the load so that every
+   * batch is committed as one transaction; a failed batch is rolled back.
+   * When loading tweets with the {@code PUSH} strategy, each batch is also copied into the home
+   * timelines of the followers with a single {@code INSERT ... SELECT} before being committed.
+   *
+   * @param filePath the path to the file to be read.
+   * @param sql the insert statement.
+   * @param parser parses the next record into the values of the statement parameters.
+   * @param fanOut if each batch of tweets has to be copied into the home timelines.
+   * @throws IllegalStateException if not connected or a batch fails.
+   */
+  private void loadBatched(String filePath, String sql, RecordParser parser, boolean fanOut) {
+    if (filePath == null) {
+      throw new IllegalArgumentException("Given argument is null");
+    }
+    Connection connection = this.getPool().borrow();
     try {
-      JsonReader reader = new JsonReader(new FileReader(filePath));
-      reader.beginArray();
-      while (reader.hasNext()) {
-        this.addTweetHelp(reader);
+      connection.setAutoCommit(false);
+      try (DatasetReader reader = new DatasetReader(filePath);
+          PreparedStatement batch = connection.prepareStatement(sql)) {
+        int pending = 0;
+        for (String[] row = parser.next(reader); row != null; row = parser.next(reader)) {
+          for (int i = 0; i < row.length; i++) {
+            batch.setString(i + 1, row[i]);
+          }
+          batch.addBatch();
+          pending++;
+          if (pending == this.batchSize) {
+            this.flushBatch(connection, batch, fanOut);
+            pending = 0;
+          }
+        }
+        if (pending > 0) {
+          this.flushBatch(connection, batch, fanOut);
+        }
+      } catch (SQLException e) {
+        connection.rollback();
+        throw new IllegalStateException(e.getMessage());
+      } finally {
+        connection.setAutoCommit(true);
+      }
+    } catch (IOException e) {
+      e.printStackTrace();
+    } catch (SQLException e) {
+      throw new IllegalStateException(e.getMessage());
+    } finally {
+      this.pool.release(connection);
+    }
+  }
+
+  /**
+   * Executes and commits a batch of inserts, copying the inserted tweets into the home timelines
+   * first if needed. The copied tweets are the ones with an id bigger than the last one before the
+   * batch; tweets committed meanwhile by other connections may be copied again, which the primary
+   * key of 'home_timeline' turns into a no-op.
+   *
+   * @param connection the connection of the batch, with auto-commit off.
+   * @param batch the batch of inserts.
+   * @param fanOut if the inserted tweets have to be copied into the home timelines.
+   * @throws SQLException if the batch fails.
+   */
+  private void flushBatch(Connection connection, PreparedStatement batch, boolean fanOut)
+      throws SQLException {
+    if (!fanOut) {
+      batch.executeBatch();
+      connection.commit();
+      return;
+    }
+    long lastTweetId = this.lastTweetId(connection);
+    batch.executeBatch();
+    this.fanOutSince(connection, lastTweetId);
+    connection.commit();
+  }
+
+  /**
+   * Gets the biggest tweet id in the tweets table.
+   *
+   * @param connection the connection to query through.
+   * @return the biggest tweet id, 0 if there are no tweets.
+   * @throws SQLException if the query fails.
+   */
+  private long lastTweetId(Connection connection) throws SQLException {
+    try (Statement statement = connection.createStatement();
+        ResultSet resultSet = statement.executeQuery("SELECT MAX(tweet_id) FROM tweets")) {
+      resultSet.next();
+      return resultSet.getLong(1);
+    }
+  }
+
+  /**
+   * Copies the tweets with an id bigger than a given one into the home timelines of the
+   * followers of their authors.
+   *
+   * @param connection the connection to write through.
+   * @param lastTweetId the id after which the tweets are copied.
+   * @throws SQLException if the copy fails.
+   */
+  private void fanOutSince(Connection connection, long lastTweetId) throws SQLException {
+    try (PreparedStatement copy = connection.prepareStatement(FAN_OUT_TWEETS_SINCE)) {
+      copy.setLong(1, lastTweetId);
+      copy.executeUpdate();
+    }
+  }
+
+  /**
+   * Reads all the records of a json array file and streams them to the server as tab separated
+   * lines with a single {@code LOAD DATA LOCAL INFILE}, converting them while the server reads.
+   * If the table is empty, its secondary indexes are dropped before the load and added back
+   * after it (even if the load fails), so that they are built once rather than row by row.
+   * Rows that repeat a primary key, such as a follow relation given twice, are skipped.
+   * When loading tweets with the {@code PUSH} strategy, all the loaded tweets are then copied into
+   * the home timelines of the followers with a single {@code INSERT ... SELECT}.
+   *
+   * @param filePath the path to the file to be read.
+   * @param table the table to load into.
+   * @param columns the columns of the table filled by each record, separated by commas.
+   * @param parser parses the next record into the values of the columns.
+   * @param secondaryIndexes the definitions of the secondary indexes of the table.
+   * @param fanOut if the tweets have to be copied into the home timelines.
+   * @throws IllegalStateException if not connected or the load fails.
+   */
+  private void loadLocalInfile(String filePath, String table, String columns,
+      RecordParser parser, String[] secondaryIndexes, boolean fanOut) {
+    if (filePath == null) {
+      throw new IllegalArgumentException("Given argument is null");
+    }
+    Connection connection = this.getPool().borrow();
+    try (DatasetReader reader = new DatasetReader(filePath);
+        Statement statement = connection.createStatement()) {
+      boolean deferIndexes;
+      try (ResultSet resultSet = statement.executeQuery("SELECT 1 FROM " + table + " LIMIT 1")) {
+        deferIndexes = !resultSet.next();
+      }
+      long lastTweetId = fanOut ? this.lastTweetId(connection) : 0;
+      if (deferIndexes) {
+        statement.executeUpdate(this.alterIndexes(table, "DROP INDEX ", secondaryIndexes, true));
+      }
+      try {
+        JdbcStatement load = statement.unwrap(JdbcStatement.class);
+        load.setLocalInfileInputStream(new TsvRecordStream(() -> parser.next(reader)));
+        // The driver sends the stream instead of the named file
+        statement.executeUpdate("LOAD DATA LOCAL INFILE '" + table + ".tsv' IGNORE INTO TABLE "
+            + table + " CHARACTER SET utf8mb4 (" + columns + ")");
+        load.setLocalInfileInputStream(null);
+      } finally {
+        if (deferIndexes) {
+          statement.executeUpdate(this.alterIndexes(table, "ADD INDEX ", secondaryIndexes, false));
+        }
+      }
+      if (fanOut) {
+        this.fanOutSince(connection, lastTweetId);
       }
-      reader.endArray();
-      reader.close();
     } catch (IOException e) {
       e.printStackTrace();
+    } catch (SQLException e) {
+      throw new IllegalStateException(e.getMessage());
+    } finally {
+      this.pool.release(connection);
+    }
+  }
+
+  /**
+   * Builds an {@code ALTER TABLE} statement that applies the same action to several indexes.
+   *
+   * @param table the table of the indexes.
+   * @param action the action, followed by a space.
+   * @param indexes the definitions of the indexes, in the form 'name (columns)'.
+   * @param nameOnly if only the name of each index is used.
+   * @return the statement.
+   */
+  private String alterIndexes(String table, String action, String[] indexes, boolean nameOnly) {
+    StringBuilder sql = new StringBuilder("ALTER TABLE ").append(table);
+    for (int i = 0; i < indexes.length; i++) {
+      String index = nameOnly ? indexes[i].substring(0, indexes[i].indexOf(' ')) : indexes[i];
+      sql.append(i == 0 ? " " : ", ").append(action).append(index);
     }
+    return sql.toString();
+  }
+
+  /**
+   * Reads the next record of a dataset into the values of the columns it fills.
+   */
+  private interface RecordParser {
+
+    /**
+     * Reads the next record of a dataset.
+     *
+     * @param reader the reader of the dataset.
+     * @return the values of the record in the order of the columns, or {@code null} if there are
+     *         no more records.
+     */
+    String[] next(DatasetReader reader) throws IOException;
   }
 
   @Override
@@ -78,95 +497,58 @@ public class MySQLDatabaseOPImpl implements MySQLDatabaseOP {
     if (followerId.equals(followeeId)) {
       throw new IllegalArgumentException("Follower and followee have the same id");
     }
-    try {
-      if (!this.connection.isClosed()) {
-        this.preparedStatement = this.connection.prepareStatement(
-            "INSERT INTO followers(user_id,follows_id) VALUES (?,?)");
-        this.preparedStatement.setString(1, followerId);
-        this.preparedStatement.setString(2, followeeId);
-        this.preparedStatement.executeUpdate();
-      }
+    Connection connection = this.getPool().borrow();
+    try (PreparedStatement insert = connection.prepareStatement(
+        "INSERT IGNORE INTO followers(user_id,follows_id) VALUES (?,?)")) {
+      insert.setString(1, followerId);
+      insert.setString(2, followeeId);
+      insert.executeUpdate();
     } catch (SQLException e) {
       e.getErrorCode();
+    } finally {
+      this.pool.release(connection);
     }
   }
 
   @Override
   public void addFollowers(String filePath) {
-    try {
-      JsonReader reader = new JsonReader(new FileReader(filePath));
-      reader.beginArray();
-      while (reader.hasNext()) {
-        this.addFollowerHelp(reader);
-      }
-      reader.endArray();
-      reader.close();
-    } catch (IOException e) {
-      e.printStackTrace();
+    if (this.localInfileLoad) {
+      this.loadLocalInfile(filePath, "followers", "user_id,follows_id", this::readFollowerRow,
+          FOLLOWERS_SECONDARY_INDEXES, false);
+    }
+    else {
+      this.loadBatched(filePath, "INSERT IGNORE INTO followers(user_id,follows_id) VALUES (?,?)",
+          this::readFollowerRow, false);
     }
   }
 
   /**
-   * Parses a follower-followee relation from a {@link JsonReader} and inserts it into the database.
+   * Reads the next follower-followee relation of a dataset into the values of a followers row.
    *
-   * @param reader the reader to read the json from.
+   * @param reader the reader of the dataset.
+   * @return the follower id and the followee id, or {@code null} if there are no more relations.
    */
-  private void addFollowerHelp(JsonReader reader) throws IOException {
-    String follower_id = null;
-    String followee_id = null;
-    reader.beginObject();
-    while (reader.hasNext()) {
-      String name = reader.nextName();
-      if (name.equals("user_id")) {
-        follower_id = reader.nextString();
-      }
-      else if (name.equals("follows_id")) {
-        followee_id = reader.nextString();
-      }
-      else {
-        reader.skipValue();
-      }
-    }
-    reader.endObject();
-    if (follower_id == null || followee_id == null) {
-      throw new IllegalStateException("Missing data from current JsonReader");
+  private String[] readFollowerRow(DatasetReader reader) throws IOException {
+    String[] pair = reader.nextFollower();
+    if (pair != null && pair[0].equals(pair[1])) {
+      throw new IllegalArgumentException("Follower and followee have the same id");
     }
-    this.addFollower(follower_id, followee_id);
+    return pair;
   }
 
   /**
-   * Parses a Tweet from a {@link JsonReader} and inserts it into the database.
+   * Reads the next tweet of a dataset into the values of a tweets row.
    *
-   * @param reader the reader to read the json  from.
+   * @param reader the reader of the dataset.
+   * @return the user id, the MySQL DATETIME and the message of the tweet, or {@code null} if there
+   *         are no more tweets.
    */
-  private void addTweetHelp(JsonReader reader) throws IOException {
-    // might be able to remove the tweet_id condition
-    String userId = null;
-    long datetime = -1;
-    String message = null;
-    reader.beginObject();
-    while (reader.hasNext()) {
-      String name = reader.nextName();
-      if (name.equals("user_id")) {
-        userId = reader.nextString();
-      }
-      else if (name.equals("datetime")) {
-        datetime = reader.nextLong();
-      }
-      else if (name.equals("message")) {
-        message = reader.nextString();
-      }
-      else {
-        reader.skipValue();
-      }
-    }
-    reader.endObject();
-    if (userId == null || datetime == -1 || message == null) {
-      throw new IllegalStateException("Missing data from current JsonReader");
+  private String[] readTweetRow(DatasetReader reader) throws IOException {
+    Tweet t = reader.nextTweet();
+    if (t == null) {
+      return null;
     }
-    Calendar c = Calendar.getInstance();
-    c.setTime(new Date(datetime));
-    this.addTweet(userId, c, message);
+    return new String[] {t.getUserId(), this.dateToMySQLDatetime(t.getTimestamp()), t.getMessage()};
   }
 
   @Override
@@ -176,28 +558,73 @@ public class MySQLDatabaseOPImpl implements MySQLDatabaseOP {
 
   @Override
   public List<Tweet> getHomeTM(String userId, int numOfTweets) {
+    if (userId == null) {
+      throw new IllegalArgumentException("Given argument is null");
+    }
+    if (numOfTweets < 1) {
+      throw new IllegalArgumentException("The number of tweets has to be bigger than 0");
+    }
     List<Tweet> homeTM = new ArrayList<>();
-    try {
-      this.resultSet = this.statement.executeQuery(
-          "SELECT * FROM tweets JOIN followers on (tweets.user_id = followers.follows_id) "
-              + "WHERE followers.user_id = " + String.valueOf(userId) + " ORDER BY tweet_ts "
-              + "DESC LIMIT " + String.valueOf(numOfTweets));
-      while (this.resultSet.next()) {
-        String user = this.resultSet.getString("user_id");
-        Timestamp datetime = this.resultSet.getTimestamp("tweet_ts");
-        String message = this.resultSet.getString("tweet_text");
-        long millis = datetime.getTime();
-        Calendar c = Calendar.getInstance();
-        c.setTime(new Date(millis));
-        Tweet t = new Tweet(user, c, message);
-        homeTM.add(t);
+    MySQLHomeTMMode mode = this.homeTMMode;
+    Connection connection = this.getPool().borrow();
+    try (PreparedStatement query = connection.prepareStatement(this.homeTMQuery(mode))) {
+      this.bindHomeTM(query, mode, userId, numOfTweets);
+      try (ResultSet resultSet = query.executeQuery()) {
+        while (resultSet.next()) {
+          String user = resultSet.getString("user_id");
+          Timestamp datetime = resultSet.getTimestamp("tweet_ts");
+          String message = resultSet.getString("tweet_text");
+          Tweet t = new Tweet(user, datetime.getTime(), message);
+          homeTM.add(t);
+        }
       }
     } catch (SQLException e) {
       e.getErrorCode();
+    } finally {
+      this.pool.release(connection);
     }
     return homeTM;
   }
 
+  @Override
+  public List<String> explainHomeTM(String userId, int numOfTweets) {
+    if (userId == null) {
+      throw new IllegalArgumentException("Given argument is null");
+    }
+    List<String> plan = new ArrayList<>();
+    MySQLHomeTMMode mode = this.homeTMMode;
+    String sql = this.homeTMQuery(mode);
+    // The join merges the tweets of all the followees, which can only be sorted after reading
+    boolean sortAllowed = sql.equals(HOME_TM_QUERY);
+    Connection connection = this.getPool().borrow();
+    try (PreparedStatement explain = connection.prepareStatement("EXPLAIN " + sql)) {
+      this.bindHomeTM(explain, mode, userId, numOfTweets);
+      try (ResultSet resultSet = explain.executeQuery()) {
+        while (resultSet.next()) {
+          String table = resultSet.getString("table");
+          String type = resultSet.getString("type");
+          String key = resultSet.getString("key");
+          String extra = resultSet.getString("Extra");
+          plan.add(String.format("table=%s type=%s key=%s rows=%d extra=%s", table, type, key,
+              resultSet.getLong("rows"), extra));
+          // Derived tables are materialized in memory, only base tables have to use an index
+          boolean derived = table != null && table.startsWith("<");
+          if (!derived && ("ALL".equals(type) || key == null)) {
+            throw new IllegalStateException("Home timeline query scans the whole table " + table);
+          }
+          if (!derived && !sortAllowed && extra != null && extra.contains("Using filesort")) {
+            throw new IllegalStateException("Home timeline query sorts the rows of " + table);
+          }
+        }
+      }
+    } catch (SQLException e) {
+      throw new IllegalStateException(e.getMessage());
+    } finally {
+      this.pool.release(connection);
+    }
+    return plan;
+  }
+
   @Override
   public Set<String> getFollowers(String userId) {
     throw new UnsupportedOperationException();
@@ -210,11 +637,17 @@ public class MySQLDatabaseOPImpl implements MySQLDatabaseOP {
 
   @Override
   public void resetDatabase() {
-    try {
-      this.statement.executeQuery("TRUNCATE TABLE tweets");
-      this.statement.executeQuery("TRUNCATE TABLE followers");
+    Connection connection = this.getPool().borrow();
+    try (Statement statement = connection.createStatement()) {
+      statement.executeUpdate("TRUNCATE TABLE tweets");
+      statement.executeUpdate("TRUNCATE TABLE followers");
+      if (this.strategy == MySQLTimelineStrategy.PUSH) {
+        statement.executeUpdate("TRUNCATE TABLE home_timeline");
+      }
     } catch (SQLException e) {
       e.getErrorCode();
+    } finally {
+      this.pool.release(connection);
     }
   }
 
@@ -223,11 +656,12 @@ public class MySQLDatabaseOPImpl implements MySQLDatabaseOP {
       // Setup the driver
       Class.forName(driver).newInstance();
 
-      // Setup the connection with the DB
-      this.connection = DriverManager.getConnection(connectionPath);
+      // Setup the pool of connections with the DB
+      this.localInfileAllowed = this.localInfileLoad;
+      this.pool = new MySQLConnectionPool(this.withDriverOptions(connectionPath), this.poolSize);
 
-      // Statements allow to issue SQL queries to the database
-      this.statement = this.connection.createStatement();
+      // Create the tables and their indexes if missing
+      this.createSchema();
 
     } catch (Exception e) {
       throw new IllegalStateException(e.getMessage());
@@ -236,14 +670,8 @@ public class MySQLDatabaseOPImpl implements MySQLDatabaseOP {
 
   public void closeConnection() throws IllegalStateException {
     try {
-      if (this.resultSet != null) {
-        this.resultSet.close();
-      }
-      if (this.statement != null) {
-        this.statement.close();
-      }
-      if (this.connection != null) {
-        this.connection.close();
+      if (this.pool != null) {
+        this.pool.close();
       }
     } catch (SQLException e) {
       throw new IllegalStateException("Closed them all: Should never happen");
@@ -251,14 +679,102 @@ public class MySQLDatabaseOPImpl implements MySQLDatabaseOP {
   }
 
   /**
-   * Converts the given {@link Calendar} to a DATETIME string recognized by MySQL.
+   * Gets the pool of connections opened by {@code connect}.
+   *
+   * @return the pool of connections.
+   * @throws IllegalStateException if not connected yet.
+   */
+  private MySQLConnectionPool getPool() {
+    if (this.pool == null) {
+      throw new IllegalStateException("Connection is closed");
+    }
+    return this.pool;
+  }
+
+  /**
+   * Gets the home timeline query used in a given mode, which is ignored with the {@code PUSH}
+   * strategy.
+   *
+   * @param mode the home timeline mode.
+   * @return the query.
+   */
+  private String homeTMQuery(MySQLHomeTMMode mode) {
+    if (this.strategy == MySQLTimelineStrategy.PUSH) {
+      return PUSH_HOME_TM_QUERY;
+    }
+    return mode == MySQLHomeTMMode.PER_FOLLOWEE ? PER_FOLLOWEE_HOME_TM_QUERY : HOME_TM_QUERY;
+  }
+
+  /**
+   * Binds the parameters of the home timeline query used in a given mode.
+   *
+   * @param query the prepared home timeline query.
+   * @param mode the home timeline mode.
+   * @param userId the id of the user.
+   * @param numOfTweets the number of tweets of the home timeline.
+   * @throws SQLException if the parameters cannot be bound.
+   */
+  private void bindHomeTM(PreparedStatement query, MySQLHomeTMMode mode, String userId,
+      int numOfTweets) throws SQLException {
+    query.setString(1, userId);
+    query.setInt(2, numOfTweets);
+    if (this.strategy == MySQLTimelineStrategy.PULL && mode == MySQLHomeTMMode.PER_FOLLOWEE) {
+      query.setInt(3, numOfTweets);
+    }
+  }
+
+  /**
+   * Creates the tables used by this implementation, with their indexes, if they do not exist.
+   *
+   * @throws SQLException if the tables cannot be created.
+   */
+  private void createSchema() throws SQLException {
+    Connection connection = this.pool.borrow();
+    try (Statement statement = connection.createStatement()) {
+      statement.executeUpdate(CREATE_TWEETS);
+      statement.executeUpdate(CREATE_FOLLOWERS);
+      if (this.strategy == MySQLTimelineStrategy.PUSH) {
+        statement.executeUpdate(CREATE_HOME_TIMELINE);
+      }
+    } finally {
+      this.pool.release(connection);
+    }
+  }
+
+  /**
+   * Asks the MySQL driver to rewrite batches of inserts into multi-row inserts and to prepare and
+   * cache the statements server side, unless the given connection path already sets the options
+   * or does not point to MySQL. {@code LOAD DATA LOCAL INFILE} is only allowed if the local
+   * infile load is enabled, since it lets the server ask the client for any of its files.
+   *
+   * @param connectionPath the connection path to the database.
+   * @return the connection path with the driver options turned on.
+   */
+  private String withDriverOptions(String connectionPath) {
+    if (!connectionPath.startsWith("jdbc:mysql:")) {
+      return connectionPath;
+    }
+    List<String> options = new ArrayList<>(
+        Arrays.asList("rewriteBatchedStatements", "useServerPrepStmts", "cachePrepStmts"));
+    if (this.localInfileLoad) {
+      options.add("allowLoadLocalInfile");
+    }
+    StringBuilder result = new StringBuilder(connectionPath);
+    for (String option : options) {
+      if (!connectionPath.contains(option + "=")) {
+        result.append(result.indexOf("?") < 0 ? '?' : '&').append(option).append("=true");
+      }
+    }
+    return result.toString();
+  }
+
+  /**
+   * Converts the given datetime to a DATETIME string recognized by MySQL.
    *
-   * @param t the given datetime.
+   * @param timestamp the given datetime in milliseconds from epoch.
    * @return the formatted mysql DATETIME string.
    */
-  private String dateToMySQLDatetime(Calendar t) {
-    SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
-    Date d = t.getTime();
-    return sdf.format(d);
+  private String dateToMySQLDatetime(long timestamp) {
+    return MYSQL_DATETIME.format(Instant.ofEpochMilli(timestamp));
   }
 }
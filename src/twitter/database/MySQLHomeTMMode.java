@@ -0,0 +1,20 @@
+package twitter.database;
+
+/**
+ * Represents the queries with which the MySQL implementation can compute a home timeline.
+ */
+public enum MySQLHomeTMMode {
+
+  /**
+   * Joins all the tweets of all the followees of the user, sorts them by date and keeps the most
+   * recent ones. The cost grows with the number of tweets ever written by the followees.
+   */
+  JOIN,
+
+  /**
+   * Reads only the most recent tweets of each followee with an index range scan (through a
+   * {@code LATERAL} derived table, which needs MySQL 8.0.14 or later) and merges these short lists.
+   * The cost grows with the number of followees and tweets asked for, not with the history.
+   */
+  PER_FOLLOWEE
+}
@@ -0,0 +1,20 @@
+package twitter.database;
+
+/**
+ * Represents the ways in which the MySQL implementation can keep the home timelines.
+ */
+public enum MySQLTimelineStrategy {
+
+  /**
+   * Tweets are only stored in the 'tweets' table and each home timeline is computed when read
+   * from the tweets of the followees of the user.
+   */
+  PULL,
+
+  /**
+   * Besides being stored in the 'tweets' table, every tweet is copied when written into the
+   * 'home_timeline' table, once for each follower of its author, so that reading a home timeline
+   * is a single index range scan.
+   */
+  PUSH
+}
@@ -1,8 +1,7 @@
 package twitter.database;
 
-import java.text.ParseException;
 import java.util.ArrayList;
-import java.util.Calendar;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
@@ -13,6 +12,10 @@ import java.util.Set;
 import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.stream.Collectors;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.Tuple;
 
 /**
  * Represents an implementation of the Redis database operations for the
@@ -29,10 +32,44 @@ import java.util.stream.Collectors;
  * all its tweets using a Redis sorted set of tweet id's. To retrieve the home timeline, the program
  * computes the Redis set of followed users and for each of them, gets the top N number of
  * tweets and puts them into a temp list. Then the list gets sorted and the first N number gets
- * retrieved.
+ * retrieved. Unless the execution mode is {@code SEQUENTIAL}, the reads are pipelined and only
+ * the N most recent candidates are kept and hydrated. In {@code SCRIPTED} mode both the tweet
+ * insertion and the timeline merge run server side as Lua scripts.
  */
 public class RedisDBOPImplStrategy1 extends AbstractRedisDBOPImpl {
 
+  private static final String ADD_TWEET_SCRIPT =
+      "local key = 'tweet:' .. redis.call('INCR', KEYS[1])\n"
+      + "redis.call('HMSET', key, 'userid', ARGV[1], 'datetime', ARGV[2], 'text', ARGV[3])\n"
+      + "redis.call('ZADD', 'user:tweets:' .. ARGV[1], ARGV[4], key)\n"
+      + "return key\n";
+
+  /**
+   * Merges the N most recent tweets of every followee of ARGV[1] (N = ARGV[2]) and returns the
+   * userid, datetime and text of the N most recent ones as a flat list.
+   */
+  private static final String HOME_TM_SCRIPT =
+      "local n = tonumber(ARGV[2])\n"
+      + "local candidates = {}\n"
+      + "for _, followee in ipairs(redis.call('SMEMBERS', 'followed:' .. ARGV[1])) do\n"
+      + "  local entries = redis.call('ZREVRANGE', 'user:tweets:' .. followee, 0, n - 1,"
+      + " 'WITHSCORES')\n"
+      + "  for i = 1, #entries, 2 do\n"
+      + "    candidates[#candidates + 1] = {entries[i], tonumber(entries[i + 1])}\n"
+      + "  end\n"
+      + "end\n"
+      + "table.sort(candidates, function(a, b) return a[2] > b[2] end)\n"
+      + "local result = {}\n"
+      + "for i = 1, math.min(n, #candidates) do\n"
+      + "  local values = redis.call('HMGET', candidates[i][1], 'userid', 'datetime', 'text')\n"
+      + "  for j = 1, 3 do\n"
+      + "    result[#result + 1] = values[j]\n"
+      + "  end\n"
+      + "end\n"
+      + "return result\n";
+
+  private String homeTMSha;
+
   /**
    * Establishes a new connection to the local default Redis DB upon construction.
    * Sets up the {@code nextTweetId} index to start at 1.
@@ -50,18 +87,60 @@ public class RedisDBOPImplStrategy1 extends AbstractRedisDBOPImpl {
   @Override
   public void addTweet(Tweet t) {
     this.checkNulls(t);
+    if (this.mode == RedisExecutionMode.PIPELINED) {
+      this.addTweetPipelined(t, false);
+      return;
+    }
+    if (this.mode == RedisExecutionMode.SCRIPTED) {
+      this.addTweetScripted(this.jedis, t, false);
+      return;
+    }
     String tweetKey = "tweet:" + this.getNextId();
-    String datetime = this.sdf.format(t.getDatetime().getTime());
+    String datetime = this.formatDatetime(t.getTimestamp());
     Map<String, String> values = new HashMap<>();
     values.put("userid", t.getUserId());
     values.put("datetime", datetime);
     values.put("text", t.getMessage());
     this.jedis.hmset(tweetKey, values);
     String userKey = "user:tweets:" + t.getUserId();
-    long timeInMilliseconds = t.getDatetime().getTimeInMillis();
+    long timeInMilliseconds = t.getTimestamp();
     this.jedis.zadd(userKey, timeInMilliseconds, tweetKey);
   }
 
+  @Override
+  protected String getAddTweetScript() {
+    return ADD_TWEET_SCRIPT;
+  }
+
+  @Override
+  protected void loadScripts() {
+    super.loadScripts();
+    this.homeTMSha = this.jedis.scriptLoad(HOME_TM_SCRIPT);
+  }
+
+  /**
+   * The followers are ignored as this strategy never broadcasts tweets.
+   */
+  @Override
+  protected void writeTweet(Pipeline pipeline, String key, Tweet t, Set<String> followers) {
+    String datetime = this.formatDatetime(t.getTimestamp());
+    Map<String, String> values = new HashMap<>();
+    values.put("userid", t.getUserId());
+    values.put("datetime", datetime);
+    values.put("text", t.getMessage());
+    pipeline.hmset(key, values);
+    long timeInMilliseconds = t.getTimestamp();
+    pipeline.zadd("user:tweets:" + t.getUserId(), timeInMilliseconds, key);
+  }
+
+  /**
+   * Tweets are never broadcasted in this strategy, so the followers are not fetched.
+   */
+  @Override
+  protected void flushTweets(Jedis connection, List<Tweet> chunk, boolean broadcast) {
+    super.flushTweets(connection, chunk, false);
+  }
+
   @Override
   public void addFollower(String followerId, String followeeId) {
     this.checkNulls(followerId, followeeId);
@@ -70,9 +149,75 @@ public class RedisDBOPImplStrategy1 extends AbstractRedisDBOPImpl {
     this.jedis.sadd(key,value);
   }
 
+  @Override
+  protected void writeFollower(Pipeline pipeline, String followerId, String followeeId) {
+    pipeline.sadd("followed:" + followeeId, followerId);
+  }
+
+  /**
+   * In {@code SEQUENTIAL} mode, every followee and every tweet field is read on its own.
+   * Otherwise the timeline costs three round trips regardless of the number of followees:
+   * one for the set of followees, one pipeline for the N most recent tweet keys (with their
+   * timestamps as scores) of every followee, and one pipeline of {@code HMGET}s for the N keys
+   * that win the merge. The merge keeps only the N most recent keys in a bounded min-heap.
+   * In {@code SCRIPTED} mode the whole merge runs server side as a single script call.
+   */
   @Override
   public List<Tweet> getHomeTM(String userId, int numOfTweets) {
     this.checkNulls(userId);
+    if (numOfTweets < 1) {
+      throw new IllegalArgumentException("The number of tweets has to be bigger than 0");
+    }
+    if (this.mode == RedisExecutionMode.SEQUENTIAL) {
+      return this.getHomeTMSequential(userId, numOfTweets);
+    }
+    if (this.mode == RedisExecutionMode.SCRIPTED) {
+      return this.getHomeTMScripted(userId, numOfTweets);
+    }
+    Set<String> followed = this.getFollowed(userId);
+
+    Pipeline candidates = this.jedis.pipelined();
+    List<Response<Set<Tuple>>> userTweets = new ArrayList<>(followed.size());
+    for (String s : followed) {
+      userTweets.add(candidates.zrevrangeWithScores("user:tweets:" + s, 0, numOfTweets - 1));
+    }
+    candidates.sync();
+
+    List<Set<Tuple>> candidateSets = new ArrayList<>(userTweets.size());
+    for (Response<Set<Tuple>> response : userTweets) {
+      candidateSets.add(response.get());
+    }
+    return this.hydrateTweets(this.mostRecentKeys(candidateSets, numOfTweets));
+  }
+
+  /**
+   * Retrieves the home timeline of a user with a single call to the preloaded timeline script.
+   *
+   * @param userId the id of the user.
+   * @param numOfTweets the max number of tweets in the user's home timeline.
+   * @return the list of tweets in the home timeline of the user.
+   */
+  @SuppressWarnings("unchecked")
+  private List<Tweet> getHomeTMScripted(String userId, int numOfTweets) {
+    List<String> values = (List<String>) this.evalScript(this.jedis, HOME_TM_SCRIPT, () ->
+        this.jedis.evalsha(this.homeTMSha, Collections.<String>emptyList(),
+            Arrays.asList(userId, String.valueOf(numOfTweets))));
+    List<Tweet> result = new ArrayList<>(values.size() / 3);
+    for (int i = 0; i + 2 < values.size(); i += 3) {
+      result.add(this.toTweet(values.subList(i, i + 3)));
+    }
+    return result;
+  }
+
+  /**
+   * Retrieves the home timeline of a user by reading every followee and every tweet field
+   * with its own command.
+   *
+   * @param userId the id of the user.
+   * @param numOfTweets the max number of tweets in the user's home timeline.
+   * @return the list of tweets in the home timeline of the user.
+   */
+  private List<Tweet> getHomeTMSequential(String userId, int numOfTweets) {
     Set<String> followed = this.getFollowed(userId);
 
     // List of tweets from all the users that the given user follows.
@@ -85,21 +230,13 @@ public class RedisDBOPImplStrategy1 extends AbstractRedisDBOPImpl {
       Set<String> tweetIds = this.jedis.zrevrange("user:tweets:" + s, 0, numOfTweets - 1);
       // Function that converts the tweet of a user from string to tweet
       Function<String, Tweet> f2 = s2 -> {
-        Tweet t = null;
-        try {
-          String id = this.jedis.hget(s2, "userid");
-          String dt = this.jedis.hget(s2, "datetime");
-          String text = this.jedis.hget(s2, "text");
-          Calendar datetime = Calendar.getInstance();
-          datetime.setTime(sdf.parse(dt));
-          t = new Tweet(id, datetime, text);
-        } catch (ParseException e) {
-          e.printStackTrace();
-        }
-        if (t == null) {
+        String id = this.jedis.hget(s2, "userid");
+        String dt = this.jedis.hget(s2, "datetime");
+        String text = this.jedis.hget(s2, "text");
+        if (id == null || dt == null || text == null) {
           throw new IllegalStateException("Missing data from tweet");
         }
-        return t;
+        return new Tweet(id, this.parseDatetime(dt), text);
       };
       List<Tweet> userTweets = tweetIds.stream().map(f2).collect(Collectors.toList());
       tempListResult.addAll(userTweets);
@@ -112,8 +249,8 @@ public class RedisDBOPImplStrategy1 extends AbstractRedisDBOPImpl {
     Collections.sort(tempListResult, new Comparator<Tweet>() {
       @Override
       public int compare(Tweet o1, Tweet o2) {
-        long t1 = o1.getDatetime().getTimeInMillis();
-        long t2 = o2.getDatetime().getTimeInMillis();
+        long t1 = o1.getTimestamp();
+        long t2 = o2.getTimestamp();
         if (t1 > t2) {
           return -1;
         }
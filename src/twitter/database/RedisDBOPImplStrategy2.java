@@ -1,8 +1,6 @@
 package twitter.database;
 
-import java.text.ParseException;
 import java.util.ArrayList;
-import java.util.Calendar;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
@@ -10,6 +8,7 @@ import java.util.Map;
 import java.util.Set;
 import java.util.function.Function;
 import java.util.stream.Collectors;
+import redis.clients.jedis.Pipeline;
 
 /**
  * Represents an implementation of the Redis database operations for the
@@ -28,9 +27,25 @@ import java.util.stream.Collectors;
  * each of those followers' home timeline. The home timeline are represented as Redis sorted set
  * using the date (in milliseconds from epoch) of tweet as the sorting value.
  * Each value in the sorted set is a the key to retrieve the tweet.
+ * Unless the execution mode is {@code SEQUENTIAL}, all the writes of a tweet (hash and every home
+ * timeline insertion) are sent to Redis as a single pipeline. In {@code SCRIPTED} mode the whole
+ * tweet insertion runs server side as a Lua script.
  */
 public class RedisDBOPImplStrategy2 extends AbstractRedisDBOPImpl {
 
+  private static final String ADD_TWEET_SCRIPT =
+      "local key = 'tweet:' .. redis.call('INCR', KEYS[1])\n"
+      + "local max = tonumber(ARGV[6])\n"
+      + "redis.call('HMSET', key, 'userid', ARGV[1], 'datetime', ARGV[2], 'text', ARGV[3])\n"
+      + "if ARGV[5] == '1' then\n"
+      + "  for _, follower in ipairs(redis.call('SMEMBERS', 'followers:' .. ARGV[1])) do\n"
+      + "    redis.call('ZADD', 'hometl:' .. follower, ARGV[4], key)\n"
+      + "    if max > 0 then redis.call('ZREMRANGEBYRANK', 'hometl:' .. follower, 0, -max - 1)"
+      + " end\n"
+      + "  end\n"
+      + "end\n"
+      + "return key\n";
+
   /**
    * Establishes a new connection to the local default Redis DB upon construction.
    * Sets up the {@code nextTweetId} index to start at 1.
@@ -49,9 +64,17 @@ public class RedisDBOPImplStrategy2 extends AbstractRedisDBOPImpl {
   @Override
   public void addTweet(Tweet t, boolean broadcast) {
     this.checkNulls(t);
+    if (this.mode == RedisExecutionMode.PIPELINED) {
+      this.addTweetPipelined(t, broadcast);
+      return;
+    }
+    if (this.mode == RedisExecutionMode.SCRIPTED) {
+      this.addTweetScripted(this.jedis, t, broadcast);
+      return;
+    }
     String key = "tweet:" + this.getNextId();
 
-    String datetime = this.sdf.format(t.getDatetime().getTime());
+    String datetime = this.formatDatetime(t.getTimestamp());
     Map<String, String> values = new HashMap<>();
     values.put("userid", t.getUserId());
     values.put("datetime", datetime);
@@ -60,23 +83,56 @@ public class RedisDBOPImplStrategy2 extends AbstractRedisDBOPImpl {
 
     if (broadcast) {
       String userId = t.getUserId();
-      long timeInMilliseconds = t.getDatetime().getTimeInMillis();
+      long timeInMilliseconds = t.getTimestamp();
       Set<String> followers = this.jedis.smembers("followers:" + userId);
       for (String s : followers) {
         String tempKey = "hometl:" + s;
         this.jedis.zadd(tempKey, timeInMilliseconds, key);
+        if (this.maxTimelineLength > 0) {
+          this.jedis.zremrangeByRank(tempKey, 0, -(this.maxTimelineLength + 1));
+        }
       }
     }
   }
 
+  @Override
+  protected String getAddTweetScript() {
+    return ADD_TWEET_SCRIPT;
+  }
+
+  @Override
+  protected void writeTweet(Pipeline pipeline, String key, Tweet t, Set<String> followers) {
+    String datetime = this.formatDatetime(t.getTimestamp());
+    Map<String, String> values = new HashMap<>();
+    values.put("userid", t.getUserId());
+    values.put("datetime", datetime);
+    values.put("text", t.getMessage());
+    pipeline.hmset(key, values);
+
+    long timeInMilliseconds = t.getTimestamp();
+    for (String s : followers) {
+      this.addToTimeline(pipeline, "hometl:" + s, timeInMilliseconds, key);
+    }
+  }
+
   @Override
   public void addFollower(String followerId, String followeeId) {
     this.checkNulls(followerId, followeeId);
     String key = "followers:" + followeeId;
     String value = followerId;
     this.jedis.sadd(key,value);
+    this.cacheFollower(followerId, followeeId);
   }
 
+  @Override
+  protected void writeFollower(Pipeline pipeline, String followerId, String followeeId) {
+    pipeline.sadd("followers:" + followeeId, followerId);
+  }
+
+  /**
+   * Unless the execution mode is {@code SEQUENTIAL}, the tweets are read with a single pipeline
+   * of {@code HMGET}s, skipping the ones found in the tweet cache.
+   */
   @Override
   public List<Tweet> getHomeTM(String userId, int numOfTweets) {
     this.checkNulls(userId);
@@ -84,23 +140,18 @@ public class RedisDBOPImplStrategy2 extends AbstractRedisDBOPImpl {
       throw new IllegalArgumentException("The number of tweets has to be bigger than 0");
     }
     Set<String> homeTM = this.jedis.zrevrange("hometl:" + userId, 0, numOfTweets - 1);
+    if (this.mode != RedisExecutionMode.SEQUENTIAL) {
+      return this.hydrateTweets(homeTM.toArray(new String[0]));
+    }
     // Converts the tweet from a string to a Tweet
     Function<String, Tweet> f = s -> {
-      Tweet t = null;
-      try {
-        String id = this.jedis.hget(s, "userid");
-        String dt = this.jedis.hget(s, "datetime");
-        String text = this.jedis.hget(s, "text");
-        Calendar datetime = Calendar.getInstance();
-        datetime.setTime(sdf.parse(dt));
-        t = new Tweet(id, datetime, text);
-      } catch (ParseException e) {
-        e.printStackTrace();
-      }
-      if (t == null) {
+      String id = this.jedis.hget(s, "userid");
+      String dt = this.jedis.hget(s, "datetime");
+      String text = this.jedis.hget(s, "text");
+      if (id == null || dt == null || text == null) {
         throw new IllegalStateException("Missing data from tweet");
       }
-      return t;
+      return new Tweet(id, this.parseDatetime(dt), text);
     };
     List<Tweet> result = homeTM.stream().map(f).collect(Collectors.toList());
     return result;
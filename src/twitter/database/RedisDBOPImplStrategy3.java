@@ -1,14 +1,13 @@
 package twitter.database;
 
-import java.text.ParseException;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Calendar;
-import java.util.Date;
+import java.util.Collections;
 import java.util.List;
 import java.util.Set;
-import java.util.function.Function;
-import java.util.stream.Collectors;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Pipeline;
 
 /**
  * Represents an implementation of the Redis database operations for the
@@ -21,15 +20,38 @@ import java.util.stream.Collectors;
  * DESIGN:
  * The implementation keeps track of an index counter and utilizes its values to represent unique
  * tweets id's whenever a tweet is added. Each tweet is added using the above naming convention
- * and stores as strings. If the broadcast values is true, it computes the list of followers of
- * the tweet author and adds this tweet to each of those followers' home timeline.
+ * and stored as a binary string encoded with {@link TweetCodec}. If the broadcast values is true,
+ * it computes the list of followers of the tweet author and adds the tweet id to each of those
+ * followers' home timeline, so that every home timeline entry only costs a few bytes and points
+ * to the single stored tweet.
  * The home timeline are represented as Redis sorted set using the date (in milliseconds from epoch)
- * of tweet as the sorting value. Each value in the sorted set is a tweet.
- * When retrieving the home timeline, to simulate reading strings from DB without turning the result
- * into tweets, the {@code getHomeTM} method returns an empty list.
+ * of tweet as the sorting value. Each value in the sorted set is a tweet id.
+ * When retrieving the home timeline, the ids are read first and then all the tweets are read with
+ * a single {@code MGET} and decoded.
+ * Unless the execution mode is {@code SEQUENTIAL}, all the writes of a tweet (string and every home
+ * timeline insertion) are sent to Redis as a single pipeline. In {@code SCRIPTED} mode the whole
+ * tweet insertion runs server side as a Lua script.
  */
 public class RedisDBOPImplStrategy3 extends AbstractRedisDBOPImpl {
 
+  /**
+   * Unlike the other strategies, the arguments of this script are the user id, the datetime in
+   * milliseconds from epoch, '1' if the tweet has to be broadcasted, the max length of the home
+   * timelines and the encoded tweet.
+   */
+  private static final String ADD_TWEET_SCRIPT =
+      "local id = tostring(redis.call('INCR', KEYS[1]))\n"
+      + "local max = tonumber(ARGV[4])\n"
+      + "redis.call('SET', 'tweet:' .. id, ARGV[5])\n"
+      + "if ARGV[3] == '1' then\n"
+      + "  for _, follower in ipairs(redis.call('SMEMBERS', 'followers:' .. ARGV[1])) do\n"
+      + "    redis.call('ZADD', 'hometl:' .. follower, ARGV[2], id)\n"
+      + "    if max > 0 then redis.call('ZREMRANGEBYRANK', 'hometl:' .. follower, 0, -max - 1)"
+      + " end\n"
+      + "  end\n"
+      + "end\n"
+      + "return id\n";
+
   /**
    * Establishes a new connection to the local default Redis DB upon construction.
    * Sets up the {@code nextTweetId} index to start at 1.
@@ -42,28 +64,71 @@ public class RedisDBOPImplStrategy3 extends AbstractRedisDBOPImpl {
   @Override
   public void addTweet(Tweet t, boolean broadcast) {
     this.checkNulls(t);
-    String key = "tweet:" + this.getNextId();
-    long timeInMilliseconds = t.getDatetime().getTimeInMillis();
-    String datetime = String.valueOf(timeInMilliseconds);
-    String values = t.getUserId() + ":" + datetime + ":" + t.getMessage();
-    this.jedis.set(key, values);
+    if (this.mode == RedisExecutionMode.PIPELINED) {
+      this.addTweetPipelined(t, broadcast);
+      return;
+    }
+    if (this.mode == RedisExecutionMode.SCRIPTED) {
+      this.addTweetScripted(this.jedis, t, broadcast);
+      return;
+    }
+    String id = this.getNextId();
+    long timeInMilliseconds = t.getTimestamp();
+    this.jedis.set(("tweet:" + id).getBytes(StandardCharsets.UTF_8), TweetCodec.encode(t));
 
     if (broadcast) {
       String userId = t.getUserId();
       Set<String> followers = this.jedis.smembers("followers:" + userId);
       for (String s : followers) {
         String tempKey = "hometl:" + s;
-        this.jedis.zadd(tempKey, timeInMilliseconds, values);
+        this.jedis.zadd(tempKey, timeInMilliseconds, id);
+        if (this.maxTimelineLength > 0) {
+          this.jedis.zremrangeByRank(tempKey, 0, -(this.maxTimelineLength + 1));
+        }
       }
     }
   }
 
+  @Override
+  protected String getAddTweetScript() {
+    return ADD_TWEET_SCRIPT;
+  }
+
+  @Override
+  protected void addTweetScripted(Jedis connection, Tweet t, boolean broadcast) {
+    List<byte[]> args = Arrays.asList(
+        t.getUserId().getBytes(StandardCharsets.UTF_8),
+        String.valueOf(t.getTimestamp()).getBytes(StandardCharsets.UTF_8),
+        (broadcast ? "1" : "0").getBytes(StandardCharsets.UTF_8),
+        String.valueOf(this.maxTimelineLength).getBytes(StandardCharsets.UTF_8),
+        TweetCodec.encode(t));
+    this.evalScript(connection, ADD_TWEET_SCRIPT, () ->
+        connection.evalsha(this.addTweetSha.getBytes(StandardCharsets.UTF_8),
+            Collections.singletonList("nextTweetId".getBytes(StandardCharsets.UTF_8)), args));
+  }
+
+  @Override
+  protected void writeTweet(Pipeline pipeline, String key, Tweet t, Set<String> followers) {
+    long timeInMilliseconds = t.getTimestamp();
+    String id = key.substring("tweet:".length());
+    pipeline.set(key.getBytes(StandardCharsets.UTF_8), TweetCodec.encode(t));
+    for (String s : followers) {
+      this.addToTimeline(pipeline, "hometl:" + s, timeInMilliseconds, id);
+    }
+  }
+
   @Override
   public void addFollower(String followerId, String followeeId) {
     this.checkNulls(followerId, followeeId);
     String key = "followers:" + followeeId;
     String value = followerId;
     this.jedis.sadd(key,value);
+    this.cacheFollower(followerId, followeeId);
+  }
+
+  @Override
+  protected void writeFollower(Pipeline pipeline, String followerId, String followeeId) {
+    pipeline.sadd("followers:" + followeeId, followerId);
   }
 
   @Override
@@ -73,29 +138,31 @@ public class RedisDBOPImplStrategy3 extends AbstractRedisDBOPImpl {
       throw new IllegalArgumentException("The number of tweets has to be bigger than 0");
     }
     Set<String> homeTM = this.jedis.zrevrange("hometl:" + userId, 0, numOfTweets - 1);
-    // Converts the tweet from a string to a Tweet
-    Function<String, Tweet> f = s -> {
-      Tweet t = null;
-      List<String> data = Arrays.asList(s.split(":"));
-      String id = data.get(0);
-      String dt = data.get(1);
-      long timeInMilliseconds = Long.valueOf(dt);
-      String text = null;
-      if (data.size() == 2) {
-        text = "";
-      }
-      else {
-        text = data.get(2);
+    if (homeTM.isEmpty()) {
+      return new ArrayList<>();
+    }
+    byte[][] keys = new byte[homeTM.size()][];
+    int i = 0;
+    for (String id : homeTM) {
+      keys[i++] = ("tweet:" + id).getBytes(StandardCharsets.UTF_8);
+    }
+    List<byte[]> values;
+    if (this.mode == RedisExecutionMode.SEQUENTIAL) {
+      values = new ArrayList<>(keys.length);
+      for (byte[] key : keys) {
+        values.add(this.jedis.get(key));
       }
-      Calendar datetime = Calendar.getInstance();
-      datetime.setTime(new Date(timeInMilliseconds));
-      t = new Tweet(id, null, text);
-      if (t == null) {
+    }
+    else {
+      values = this.jedis.mget(keys);
+    }
+    List<Tweet> result = new ArrayList<>(values.size());
+    for (byte[] value : values) {
+      if (value == null) {
         throw new IllegalStateException("Missing data from tweet");
       }
-      return t;
-    };
-    List<Tweet> result = homeTM.stream().map(f).collect(Collectors.toList());
+      result.add(TweetCodec.decode(value));
+    }
     return result;
   }
 
@@ -0,0 +1,298 @@
+package twitter.database;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.Tuple;
+
+/**
+ * Represents an implementation of the Redis database operations for the
+ * Twitter project (strategy 4).
+ * Naming conventions used in this implementation:
+ * 'tweet:(int)' is the key for each tweet in the database;
+ * 'nextTweetId' is a counter that keeps track of the next usable id to use as tweet id;
+ * 'followers:(user_id)' is the format of keys for the set of followers of each user;
+ * 'followed:(user_id)' is the format of keys for the set of users followed by each user;
+ * 'celebrities' is the key for the set of users with at least the threshold number of followers;
+ * 'user:tweets:(user_id)' is the format of keys for the sorted set of tweets of each celebrity;
+ * 'hometl:(user_id)' is the format of keys for the sorted list of tweets in the user home timeline;
+ *
+ * DESIGN:
+ * Hybrid of strategy 1 and 2. Each tweet is stored as a Redis hash like in strategy 2. When a tweet
+ * is broadcasted, if its author is not a celebrity the tweet is pushed into the home timeline of
+ * each follower, otherwise it is only added to the author's own sorted set of tweets. A user
+ * becomes a celebrity as soon as its number of followers reaches the threshold given at
+ * construction. To retrieve the home timeline, the program reads the N most recent tweets of the
+ * user home timeline together with the celebrities the user follows, pulls the N most recent
+ * tweets of each of those celebrities and merges everything keeping the N most recent tweets.
+ * This bounds the cost of a broadcast by the threshold, while reads only pay for the (few)
+ * celebrities a user follows.
+ * Reads are always pipelined, whatever the execution mode.
+ */
+public class RedisDBOPImplStrategy4 extends AbstractRedisDBOPImpl {
+
+  /**
+   * The number of followers from which a user is a celebrity when no threshold is given.
+   */
+  public static final int DEFAULT_CELEBRITY_THRESHOLD = 1000;
+
+  private static final String ADD_TWEET_SCRIPT =
+      "local key = 'tweet:' .. redis.call('INCR', KEYS[1])\n"
+      + "local max = tonumber(ARGV[6])\n"
+      + "redis.call('HMSET', key, 'userid', ARGV[1], 'datetime', ARGV[2], 'text', ARGV[3])\n"
+      + "if ARGV[5] == '1' then\n"
+      + "  if redis.call('SISMEMBER', 'celebrities', ARGV[1]) == 1 then\n"
+      + "    redis.call('ZADD', 'user:tweets:' .. ARGV[1], ARGV[4], key)\n"
+      + "  else\n"
+      + "    for _, follower in ipairs(redis.call('SMEMBERS', 'followers:' .. ARGV[1])) do\n"
+      + "      redis.call('ZADD', 'hometl:' .. follower, ARGV[4], key)\n"
+      + "      if max > 0 then redis.call('ZREMRANGEBYRANK', 'hometl:' .. follower, 0, -max - 1)"
+      + " end\n"
+      + "    end\n"
+      + "  end\n"
+      + "end\n"
+      + "return key\n";
+
+  private final int celebrityThreshold;
+
+  /**
+   * Establishes a new connection to the local default Redis DB upon construction.
+   * Sets up the {@code nextTweetId} index to start at 1.
+   * Initializes the format of datetime stored in the database.
+   * Users become celebrities at {@code DEFAULT_CELEBRITY_THRESHOLD} followers.
+   */
+  public RedisDBOPImplStrategy4(String datetimeFormat) {
+    this(datetimeFormat, DEFAULT_CELEBRITY_THRESHOLD);
+  }
+
+  /**
+   * Establishes a new connection to the local default Redis DB upon construction.
+   * Sets up the {@code nextTweetId} index to start at 1.
+   * Initializes the format of datetime stored in the database.
+   *
+   * @param datetimeFormat the format of datetime stored in the database.
+   * @param celebrityThreshold the number of followers from which a user is a celebrity.
+   */
+  public RedisDBOPImplStrategy4(String datetimeFormat, int celebrityThreshold) {
+    super(datetimeFormat);
+    if (celebrityThreshold < 1) {
+      throw new IllegalArgumentException("The celebrity threshold has to be bigger than 0");
+    }
+    this.celebrityThreshold = celebrityThreshold;
+  }
+
+  @Override
+  public void addTweet(Tweet t, boolean broadcast) {
+    this.checkNulls(t);
+    if (this.mode == RedisExecutionMode.PIPELINED) {
+      this.flushTweets(this.jedis, Collections.singletonList(t), broadcast);
+      return;
+    }
+    if (this.mode == RedisExecutionMode.SCRIPTED) {
+      this.addTweetScripted(this.jedis, t, broadcast);
+      return;
+    }
+    String key = "tweet:" + this.getNextId();
+    String datetime = this.formatDatetime(t.getTimestamp());
+    Map<String, String> values = new HashMap<>();
+    values.put("userid", t.getUserId());
+    values.put("datetime", datetime);
+    values.put("text", t.getMessage());
+    this.jedis.hmset(key, values);
+
+    if (broadcast) {
+      String userId = t.getUserId();
+      long timeInMilliseconds = t.getTimestamp();
+      if (this.jedis.sismember("celebrities", userId)) {
+        this.jedis.zadd("user:tweets:" + userId, timeInMilliseconds, key);
+      }
+      else {
+        Set<String> followers = this.jedis.smembers("followers:" + userId);
+        for (String s : followers) {
+          String tempKey = "hometl:" + s;
+          this.jedis.zadd(tempKey, timeInMilliseconds, key);
+          if (this.maxTimelineLength > 0) {
+            this.jedis.zremrangeByRank(tempKey, 0, -(this.maxTimelineLength + 1));
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * When broadcasting, the authors of the chunk are first checked against the celebrities, then
+   * the followers of the non celebrity authors that are not cached are fetched, then all the
+   * writes are flushed.
+   */
+  @Override
+  protected void flushTweets(Jedis connection, List<Tweet> chunk, boolean broadcast) {
+    if (this.mode != RedisExecutionMode.PIPELINED) {
+      super.flushTweets(connection, chunk, broadcast);
+      return;
+    }
+    Pipeline reads = connection.pipelined();
+    Response<Long> lastId = reads.incrBy("nextTweetId", chunk.size());
+    Map<String, Response<Boolean>> celebrities = new HashMap<>();
+    if (broadcast) {
+      for (Tweet t : chunk) {
+        celebrities.computeIfAbsent(t.getUserId(), id -> reads.sismember("celebrities", id));
+      }
+    }
+    reads.sync();
+
+    Map<String, Set<String>> followers = new HashMap<>();
+    List<String> uncached = new ArrayList<>();
+    for (Map.Entry<String, Response<Boolean>> author : celebrities.entrySet()) {
+      if (!author.getValue().get()) {
+        String id = author.getKey();
+        Set<String> cached = this.cachedFollowers(id);
+        if (cached != null) {
+          followers.put(id, cached);
+        }
+        else {
+          uncached.add(id);
+        }
+      }
+    }
+    if (!uncached.isEmpty()) {
+      Pipeline followerReads = connection.pipelined();
+      Map<String, Response<Set<String>>> fetched = new HashMap<>();
+      for (String id : uncached) {
+        fetched.put(id, followerReads.smembers("followers:" + id));
+      }
+      followerReads.sync();
+      for (Map.Entry<String, Response<Set<String>>> entry : fetched.entrySet()) {
+        followers.put(entry.getKey(), entry.getValue().get());
+        this.cacheFollowers(entry.getKey(), entry.getValue().get());
+      }
+    }
+
+    Pipeline writes = connection.pipelined();
+    long nextId = lastId.get() - chunk.size() + 1;
+    for (Tweet t : chunk) {
+      String key = "tweet:" + nextId;
+      Set<String> targets = followers.get(t.getUserId());
+      if (targets != null) {
+        this.writeTweet(writes, key, t, targets);
+      }
+      else {
+        this.writeTweet(writes, key, t, Collections.<String>emptySet());
+        if (broadcast) {
+          long timeInMilliseconds = t.getTimestamp();
+          writes.zadd("user:tweets:" + t.getUserId(), timeInMilliseconds, key);
+        }
+      }
+      nextId++;
+    }
+    writes.sync();
+  }
+
+  @Override
+  protected String getAddTweetScript() {
+    return ADD_TWEET_SCRIPT;
+  }
+
+  @Override
+  protected void writeTweet(Pipeline pipeline, String key, Tweet t, Set<String> followers) {
+    String datetime = this.formatDatetime(t.getTimestamp());
+    Map<String, String> values = new HashMap<>();
+    values.put("userid", t.getUserId());
+    values.put("datetime", datetime);
+    values.put("text", t.getMessage());
+    pipeline.hmset(key, values);
+
+    long timeInMilliseconds = t.getTimestamp();
+    for (String s : followers) {
+      this.addToTimeline(pipeline, "hometl:" + s, timeInMilliseconds, key);
+    }
+  }
+
+  @Override
+  public void addFollower(String followerId, String followeeId) {
+    this.checkNulls(followerId, followeeId);
+    this.flushFollowers(this.jedis,
+        Collections.singletonList(new String[] {followerId, followeeId}));
+  }
+
+  /**
+   * Besides storing the relations and caching them, promotes to celebrities the followees that
+   * reach the threshold number of followers.
+   */
+  @Override
+  protected void flushFollowers(Jedis connection, List<String[]> chunk) {
+    Pipeline pipeline = connection.pipelined();
+    Map<String, Response<Long>> followerCounts = new HashMap<>();
+    for (String[] pair : chunk) {
+      this.writeFollower(pipeline, pair[0], pair[1]);
+    }
+    for (String[] pair : chunk) {
+      followerCounts.computeIfAbsent(pair[1], id -> pipeline.scard("followers:" + id));
+    }
+    pipeline.sync();
+    for (String[] pair : chunk) {
+      this.cacheFollower(pair[0], pair[1]);
+    }
+
+    List<String> promoted = new ArrayList<>();
+    for (Map.Entry<String, Response<Long>> followee : followerCounts.entrySet()) {
+      if (followee.getValue().get() >= this.celebrityThreshold) {
+        promoted.add(followee.getKey());
+      }
+    }
+    if (!promoted.isEmpty()) {
+      connection.sadd("celebrities", promoted.toArray(new String[0]));
+    }
+  }
+
+  @Override
+  protected void writeFollower(Pipeline pipeline, String followerId, String followeeId) {
+    pipeline.sadd("followers:" + followeeId, followerId);
+    pipeline.sadd("followed:" + followerId, followeeId);
+  }
+
+  @Override
+  public List<Tweet> getHomeTM(String userId, int numOfTweets) {
+    this.checkNulls(userId);
+    if (numOfTweets < 1) {
+      throw new IllegalArgumentException("The number of tweets has to be bigger than 0");
+    }
+    Pipeline pipeline = this.jedis.pipelined();
+    Response<Set<Tuple>> pushed =
+        pipeline.zrevrangeWithScores("hometl:" + userId, 0, numOfTweets - 1);
+    Response<Set<String>> celebrities = pipeline.sinter("followed:" + userId, "celebrities");
+    pipeline.sync();
+
+    List<Set<Tuple>> candidateSets = new ArrayList<>();
+    candidateSets.add(pushed.get());
+    if (!celebrities.get().isEmpty()) {
+      Pipeline pulls = this.jedis.pipelined();
+      List<Response<Set<Tuple>>> pulled = new ArrayList<>();
+      for (String s : celebrities.get()) {
+        pulled.add(pulls.zrevrangeWithScores("user:tweets:" + s, 0, numOfTweets - 1));
+      }
+      pulls.sync();
+      for (Response<Set<Tuple>> response : pulled) {
+        candidateSets.add(response.get());
+      }
+    }
+    return this.hydrateTweets(this.mostRecentKeys(candidateSets, numOfTweets));
+  }
+
+  @Override
+  public Set<String> getFollowers(String userId) {
+    this.checkNulls(userId);
+    return this.jedis.smembers("followers:" + userId);
+  }
+
+  @Override
+  public Set<String> getFollowed(String userId) {
+    this.checkNulls(userId);
+    return this.jedis.smembers("followed:" + userId);
+  }
+}
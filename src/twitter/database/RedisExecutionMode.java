@@ -0,0 +1,27 @@
+package twitter.database;
+
+/**
+ * Represents the ways in which the Redis strategies can send their commands to the database.
+ */
+public enum RedisExecutionMode {
+
+  /**
+   * Every command is sent on its own and waits for its reply before the next one is sent.
+   */
+  SEQUENTIAL,
+
+  /**
+   * The commands of a single operation are batched into Jedis pipelines, so that an operation
+   * costs a fixed number of round trips no matter how many keys it touches.
+   */
+  PIPELINED,
+
+  /**
+   * Operations run as Lua scripts preloaded into Redis and invoked with {@code EVALSHA}, so that
+   * an operation costs a single round trip no matter how many keys it touches. A script that
+   * Redis has forgotten, after a restart or a {@code SCRIPT FLUSH}, is loaded again on its next
+   * call. The scripts build the names of most of the keys they touch instead of receiving them
+   * as keys, so this mode only works with a single Redis server, not with a Redis Cluster.
+   */
+  SCRIPTED
+}
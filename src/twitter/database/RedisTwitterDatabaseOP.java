@@ -1,5 +1,7 @@
 package twitter.database;
 
+import java.util.function.LongConsumer;
+
 /**
  * Represents an interface of additional operation when using Redis for the Twitter project.
  */
@@ -23,6 +25,100 @@ public interface RedisTwitterDatabaseOP extends DatabaseOP {
    */
   void addTweets(String filePath, boolean broadcast);
 
+  /**
+   * Adds all the tweets from a given file path into the DB, parsing and writing them in chunks
+   * of a given size. The ids of each chunk are reserved at once and the whole chunk is flushed
+   * together.
+   *
+   * @param filePath the path to the file to be read.
+   * @param broadcast if it has to be broadcasted to the followers.
+   * @param chunkSize the number of tweets written together.
+   * @param progress called with the number of tweets written so far after each chunk, can be
+   *                 {@code null}.
+   */
+  void addTweets(String filePath, boolean broadcast, int chunkSize, LongConsumer progress);
+
+  /**
+   * Adds all the tweets from a given file path into the DB using a given number of worker
+   * threads, each one with its own connection. The tweets of an author are always written by the
+   * same worker, so they are added in the order in which they appear in the file.
+   *
+   * @param filePath the path to the file to be read.
+   * @param broadcast if it has to be broadcasted to the followers.
+   * @param numWorkers the number of worker threads.
+   * @param chunkSize the number of tweets written together by a worker.
+   * @return the measures of the parser and writer stages.
+   */
+  IngestMetrics addTweetsParallel(String filePath, boolean broadcast, int numWorkers,
+      int chunkSize);
+
+  /**
+   * Adds all the follower-followee relations from a given file path into the DB using a given
+   * number of worker threads, each one with its own connection. A newline-delimited file is also
+   * parsed in as many parts at once.
+   *
+   * @param filePath the path to the file to be read.
+   * @param numWorkers the number of worker threads.
+   * @return the measures of the parser and writer stages.
+   */
+  IngestMetrics addFollowersParallel(String filePath, int numWorkers);
+
+  /**
+   * Sets the way in which the commands of each operation are sent to the DB.
+   *
+   * @param mode the execution mode to use from now on.
+   */
+  void setExecutionMode(RedisExecutionMode mode);
+
+  /**
+   * Sets the way in which the followers of each user are cached in process for broadcasts.
+   * The cache is kept up to date by the follow relations added through this instance, relations
+   * added to the DB by other clients are not seen once a user is cached.
+   * Broadcasts made by server side scripts always read the followers from the DB.
+   *
+   * @param mode the follower cache mode to use from now on.
+   */
+  void setFollowerCacheMode(FollowerCacheMode mode);
+
+  /**
+   * Sets the size of the in-process cache of tweets read by the home timeline operations.
+   * A new empty cache is created every time this is called.
+   *
+   * @param maxSize the max number of tweets in the cache, 0 to disable the cache.
+   */
+  void setTweetCacheSize(int maxSize);
+
+  /**
+   * Gets the in-process cache of tweets, to inspect its hit and miss counters.
+   *
+   * @return the cache, or {@code null} if it is disabled.
+   */
+  TweetCache getTweetCache();
+
+  /**
+   * Sets the max number of tweets kept in each home timeline. Every broadcast trims the home
+   * timelines it writes to, dropping the oldest tweets beyond this length.
+   *
+   * @param maxTimelineLength the max number of tweets in a home timeline, 0 for no limit.
+   */
+  void setMaxTimelineLength(int maxTimelineLength);
+
+  /**
+   * Trims every existing home timeline in the DB to the max length set with
+   * {@code setMaxTimelineLength}.
+   *
+   * @return the number of bytes of memory that Redis freed.
+   * @throws IllegalStateException if the home timelines are unbounded.
+   */
+  long compactTimelines();
+
+  /**
+   * Gets the number of bytes of memory currently used by Redis.
+   *
+   * @return the used memory in bytes.
+   */
+  long getUsedMemory();
+
   /**
    * Closes the connection to the DB.
    */
@@ -0,0 +1,138 @@
+package twitter.database;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Represents an input stream of tab separated records, built lazily from rows of values pulled
+ * from a source, in the default format of MySQL {@code LOAD DATA}: fields end with a tab, lines
+ * end with a newline and tabs, newlines, carriage returns, NUL characters and backslashes inside
+ * values are escaped with a backslash. The text is encoded as UTF-8.
+ * Rows are converted a block at a time, so the whole data set is never held in memory.
+ */
+class TsvRecordStream extends InputStream {
+
+  /**
+   * The number of characters converted at once when the stream runs out of bytes.
+   */
+  private static final int BLOCK_SIZE = 64 * 1024;
+
+  /**
+   * Represents a source of rows of values.
+   */
+  interface RowSource {
+
+    /**
+     * Gets the next row of values.
+     *
+     * @return the values of the row, or {@code null} if there are no more rows.
+     * @throws IOException if the row cannot be read.
+     */
+    String[] next() throws IOException;
+  }
+
+  private final RowSource source;
+  private final StringBuilder block;
+  private byte[] buffer;
+  private int position;
+  private boolean done;
+
+  /**
+   * Creates a stream of the rows of a given source.
+   *
+   * @param source the source of the rows.
+   */
+  TsvRecordStream(RowSource source) {
+    this.source = source;
+    this.block = new StringBuilder(BLOCK_SIZE + 256);
+    this.buffer = new byte[0];
+    this.position = 0;
+    this.done = false;
+  }
+
+  @Override
+  public int read() throws IOException {
+    if (!this.fill()) {
+      return -1;
+    }
+    return this.buffer[this.position++] & 0xFF;
+  }
+
+  @Override
+  public int read(byte[] dest, int offset, int length) throws IOException {
+    if (length == 0) {
+      return 0;
+    }
+    if (!this.fill()) {
+      return -1;
+    }
+    int count = Math.min(length, this.buffer.length - this.position);
+    System.arraycopy(this.buffer, this.position, dest, offset, count);
+    this.position += count;
+    return count;
+  }
+
+  /**
+   * Converts the next block of rows if all the bytes converted so far have been read.
+   *
+   * @return if there are bytes left to read.
+   * @throws IOException if a row cannot be read.
+   */
+  private boolean fill() throws IOException {
+    if (this.position < this.buffer.length) {
+      return true;
+    }
+    if (this.done) {
+      return false;
+    }
+    this.block.setLength(0);
+    while (this.block.length() < BLOCK_SIZE) {
+      String[] row = this.source.next();
+      if (row == null) {
+        this.done = true;
+        break;
+      }
+      for (int i = 0; i < row.length; i++) {
+        if (i > 0) {
+          this.block.append('\t');
+        }
+        this.appendEscaped(row[i]);
+      }
+      this.block.append('\n');
+    }
+    this.buffer = this.block.toString().getBytes(StandardCharsets.UTF_8);
+    this.position = 0;
+    return this.buffer.length > 0;
+  }
+
+  /**
+   * Appends a value to the current block, escaping the characters with a special meaning.
+   *
+   * @param value the value.
+   */
+  private void appendEscaped(String value) {
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      switch (c) {
+        case '\\':
+          this.block.append("\\\\");
+          break;
+        case '\t':
+          this.block.append("\\t");
+          break;
+        case '\n':
+          this.block.append("\\n");
+          break;
+        case '\r':
+          this.block.append("\\r");
+          break;
+        case '\0':
+          this.block.append("\\0");
+          break;
+        default:
+          this.block.append(c);
+      }
+    }
+  }
+}
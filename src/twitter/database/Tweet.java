@@ -7,16 +7,17 @@ import java.util.Calendar;
  * Value class that represents a Tweet in Twitter.
  * The max length of the message of this tweet is set to 139.
  * String is the preferred datatype as we are working with databases.
+ * The datetime is kept as milliseconds from epoch, so a tweet is immutable and cheap to create.
  */
 public class Tweet {
 
   private final String userId;
-  private final Calendar datetime;
-  private String message;
+  private final long timestamp;
+  private final String message;
 
-  public Tweet(String userId, Calendar datetime, String message) throws IllegalArgumentException {
+  public Tweet(String userId, long timestamp, String message) throws IllegalArgumentException {
     /*
-    if (userId == null || datetime == null || message == null) {
+    if (userId == null || message == null) {
       throw new IllegalArgumentException("Given datetime or message is null");
     }
     */
@@ -24,10 +25,27 @@ public class Tweet {
       throw new IllegalArgumentException("Length of the message has to be smaller than 140");
     }
     this.userId = userId;
-    this.datetime = datetime;
+    this.timestamp = timestamp;
     this.message = message;
   }
 
+  public Tweet(String userId, Calendar datetime, String message) throws IllegalArgumentException {
+    this(userId, checkDatetime(datetime).getTimeInMillis(), message);
+  }
+
+  /**
+   * Checks that a given datetime is not null.
+   *
+   * @param datetime the datetime to check.
+   * @return the datetime.
+   */
+  private static Calendar checkDatetime(Calendar datetime) {
+    if (datetime == null) {
+      throw new IllegalArgumentException("Given datetime is null");
+    }
+    return datetime;
+  }
+
   /**
    * Gets the userId of this Tweet .
    *
@@ -38,11 +56,23 @@ public class Tweet {
   }
 
   /**
-   * Gets the datetime of this Tweet .
+   * Gets the datetime of this Tweet in milliseconds from epoch.
+   *
+   * @return the timestamp
+   */
+  public long getTimestamp() {
+    return timestamp;
+  }
+
+  /**
+   * Gets the datetime of this Tweet as a new {@link Calendar}.
+   * Prefer {@code getTimestamp}, which does not allocate.
    *
    * @return the datetime
    */
   public Calendar getDatetime() {
+    Calendar datetime = Calendar.getInstance();
+    datetime.setTimeInMillis(timestamp);
     return datetime;
   }
 
@@ -0,0 +1,97 @@
+package twitter.database;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Represents a bounded in-process cache of tweets keyed by their database key ('tweet:(int)').
+ * When full, the least recently used tweet is evicted. Tweets never change once written, so a
+ * cached tweet is always up to date, as long as the database is not reset.
+ * All the operations are synchronized, so the cache can be shared between threads.
+ */
+public class TweetCache {
+
+  private final int maxSize;
+  private final LinkedHashMap<String, Tweet> tweets;
+  private long hits;
+  private long misses;
+
+  /**
+   * Creates an empty cache holding at most a given number of tweets.
+   *
+   * @param maxSize the max number of tweets in the cache.
+   */
+  public TweetCache(int maxSize) {
+    if (maxSize < 1) {
+      throw new IllegalArgumentException("The size of the cache has to be bigger than 0");
+    }
+    this.maxSize = maxSize;
+    this.tweets = new LinkedHashMap<String, Tweet>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, Tweet> eldest) {
+        return this.size() > TweetCache.this.maxSize;
+      }
+    };
+  }
+
+  /**
+   * Gets the tweet cached under a given key and counts the lookup as a hit or a miss.
+   *
+   * @param key the key of the tweet.
+   * @return the tweet, or {@code null} if it is not cached.
+   */
+  public synchronized Tweet get(String key) {
+    Tweet t = this.tweets.get(key);
+    if (t == null) {
+      this.misses++;
+    }
+    else {
+      this.hits++;
+    }
+    return t;
+  }
+
+  /**
+   * Caches a tweet under a given key.
+   *
+   * @param key the key of the tweet.
+   * @param t the tweet.
+   */
+  public synchronized void put(String key, Tweet t) {
+    this.tweets.put(key, t);
+  }
+
+  /**
+   * Removes all the tweets from the cache. The counters are kept.
+   */
+  public synchronized void clear() {
+    this.tweets.clear();
+  }
+
+  /**
+   * Gets the number of tweets in the cache.
+   *
+   * @return the number of tweets.
+   */
+  public synchronized int size() {
+    return this.tweets.size();
+  }
+
+  /**
+   * Gets the number of lookups that found their tweet.
+   *
+   * @return the number of hits.
+   */
+  public synchronized long getHits() {
+    return this.hits;
+  }
+
+  /**
+   * Gets the number of lookups that did not find their tweet.
+   *
+   * @return the number of misses.
+   */
+  public synchronized long getMisses() {
+    return this.misses;
+  }
+}
@@ -0,0 +1,167 @@
+package twitter.database;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Utility class that encodes tweets into a compact binary form and decodes them back.
+ * An encoded tweet is made of:
+ * the user id as an unsigned varint (user ids have to be numeric);
+ * the datetime in milliseconds from epoch as a zigzag varint (so dates before 1970 stay short);
+ * the length of the message in bytes as an unsigned varint;
+ * the message encoded as UTF-8.
+ * Varints use 7 bits per byte, least significant group first, with the high bit set on every
+ * byte but the last one.
+ */
+public final class TweetCodec {
+
+  private TweetCodec() {
+  }
+
+  /**
+   * Encodes a given tweet.
+   *
+   * @param t the tweet to be encoded.
+   * @return the encoded tweet.
+   * @throws IllegalArgumentException if the user id of the tweet is not numeric.
+   */
+  public static byte[] encode(Tweet t) {
+    long userId = parseUserId(t.getUserId());
+    long datetime = zigZag(t.getTimestamp());
+    byte[] text = t.getMessage().getBytes(StandardCharsets.UTF_8);
+    byte[] result = new byte[varintSize(userId) + varintSize(datetime)
+        + varintSize(text.length) + text.length];
+    int position = writeVarint(result, 0, userId);
+    position = writeVarint(result, position, datetime);
+    position = writeVarint(result, position, text.length);
+    System.arraycopy(text, 0, result, position, text.length);
+    return result;
+  }
+
+  /**
+   * Decodes a tweet encoded with {@code encode}.
+   *
+   * @param data the encoded tweet.
+   * @return the decoded tweet.
+   */
+  public static Tweet decode(byte[] data) {
+    return decode(ByteBuffer.wrap(data));
+  }
+
+  /**
+   * Decodes a tweet encoded with {@code encode} starting at the current position of a given
+   * buffer, and moves the position of the buffer after the tweet.
+   *
+   * @param buffer the buffer holding the encoded tweet.
+   * @return the decoded tweet.
+   */
+  public static Tweet decode(ByteBuffer buffer) {
+    long userId = readVarint(buffer);
+    long datetime = unZigZag(readVarint(buffer));
+    int length = (int) readVarint(buffer);
+    String message;
+    if (buffer.hasArray()) {
+      int offset = buffer.arrayOffset() + buffer.position();
+      message = new String(buffer.array(), offset, length, StandardCharsets.UTF_8);
+      buffer.position(buffer.position() + length);
+    }
+    else {
+      byte[] text = new byte[length];
+      buffer.get(text);
+      message = new String(text, StandardCharsets.UTF_8);
+    }
+    return new Tweet(String.valueOf(userId), datetime, message);
+  }
+
+  /**
+   * Parses a user id into a non negative number.
+   *
+   * @param userId the user id.
+   * @return the numeric value of the user id.
+   * @throws IllegalArgumentException if the user id is not a non negative number.
+   */
+  private static long parseUserId(String userId) {
+    try {
+      long value = Long.parseLong(userId);
+      if (value < 0) {
+        throw new IllegalArgumentException("User id has to be non negative: " + userId);
+      }
+      return value;
+    } catch (NumberFormatException e) {
+      throw new IllegalArgumentException("User id has to be numeric: " + userId);
+    }
+  }
+
+  /**
+   * Gets the number of bytes needed to encode a given value as an unsigned varint.
+   *
+   * @param value the value.
+   * @return the number of bytes.
+   */
+  static int varintSize(long value) {
+    int size = 1;
+    while ((value & ~0x7FL) != 0) {
+      value >>>= 7;
+      size++;
+    }
+    return size;
+  }
+
+  /**
+   * Writes a given value as an unsigned varint into an array.
+   *
+   * @param dest the array to write to.
+   * @param position the position to start writing at.
+   * @param value the value.
+   * @return the position after the varint.
+   */
+  static int writeVarint(byte[] dest, int position, long value) {
+    while ((value & ~0x7FL) != 0) {
+      dest[position++] = (byte) ((value & 0x7F) | 0x80);
+      value >>>= 7;
+    }
+    dest[position++] = (byte) value;
+    return position;
+  }
+
+  /**
+   * Reads an unsigned varint from the current position of a buffer.
+   *
+   * @param buffer the buffer to read from.
+   * @return the value.
+   */
+  static long readVarint(ByteBuffer buffer) {
+    long value = 0;
+    int shift = 0;
+    byte b;
+    do {
+      if (shift > 63) {
+        throw new IllegalStateException("Malformed varint");
+      }
+      b = buffer.get();
+      value |= (long) (b & 0x7F) << shift;
+      shift += 7;
+    } while ((b & 0x80) != 0);
+    return value;
+  }
+
+  /**
+   * Maps a signed value to an unsigned one so that small negative values stay small.
+   *
+   * @param value the signed value.
+   * @return the zigzag encoded value.
+   */
+  static long zigZag(long value) {
+    return (value << 1) ^ (value >> 63);
+  }
+
+  /**
+   * Reverts {@code zigZag}.
+   *
+   * @param value the zigzag encoded value.
+   * @return the signed value.
+   */
+  static long unZigZag(long value) {
+    return (value >>> 1) ^ -(value & 1);
+  }
+}
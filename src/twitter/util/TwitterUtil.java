@@ -1,39 +1,178 @@
 package twitter.util;
 
-import com.google.gson.stream.JsonReader;
-import com.google.gson.stream.JsonWriter;
-import com.mysql.cj.x.protobuf.MysqlxSql;
-import java.io.FileReader;
-import java.io.FileWriter;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
-import java.util.Calendar;
-import java.util.Date;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Random;
+import java.util.Set;
+import java.util.SplittableRandom;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import org.apache.commons.lang3.ArrayUtils;
-import org.apache.commons.lang3.RandomStringUtils;
+import twitter.database.DatasetFormat;
+import twitter.database.DatasetReader;
+import twitter.database.DatasetWriter;
 import twitter.database.MySQLDatabaseOP;
 import twitter.database.MySQLDatabaseOPImpl;
 import twitter.database.Tweet;
 
 /**
  * Utility class that provides functionalities to build a tweet json file.
+ * Files are written as a json array unless another {@link DatasetFormat} is set.
+ *
+ * GENERATION:
+ * Datasets are generated in fixed-size blocks of records, each one with its own
+ * {@link SplittableRandom} split in block order from a single seed, so the content of a block
+ * never depends on the thread that generates it. Blocks are generated on several threads at
+ * once, and each one is written at its own offset of the file as soon as the blocks before it
+ * are sized. The same seed, format and arguments always give a byte-identical file, whatever
+ * the number of threads. A json array cannot be written in parts, so its blocks are generated
+ * and written on a single thread.
+ * By default authors and followees are drawn uniformly. With a skew they are drawn from a
+ * {@link ZipfDistribution} over the users instead, the user with the smallest id being the most
+ * active author and the most followed user, to reproduce the celebrities of a real network.
  */
 public class TwitterUtil {
 
+  /**
+   * The number of tweets generated together with the same random generator.
+   */
+  private static final int TWEETS_PER_BLOCK = 1 << 16;
+
+  /**
+   * The number of users whose follow relations are generated together with the same random
+   * generator.
+   */
+  private static final int USERS_PER_BLOCK = 1 << 12;
+
+  /**
+   * The characters of the generated messages.
+   */
+  private static final char[] ALPHANUMERIC =
+      "0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz".toCharArray();
+
+  /**
+   * The start of the time window of the tweets when none is given, 2019-01-01T00:00:00Z.
+   */
+  public static final long DEFAULT_WINDOW_START = 1546300800000L;
+
+  /**
+   * The end of the time window of the tweets when none is given, 2020-01-01T00:00:00Z.
+   */
+  public static final long DEFAULT_WINDOW_END = 1577836800000L;
+
+  private DatasetFormat format = DatasetFormat.JSON;
+  private long seed = new Random().nextLong();
+  private int numThreads = Runtime.getRuntime().availableProcessors();
+  private long windowStart = DEFAULT_WINDOW_START;
+  private long windowEnd = DEFAULT_WINDOW_END;
+  private double authorSkew = 0;
+  private double followerSkew = 0;
+
+  /**
+   * Sets the format of the files built from now on.
+   *
+   * @param format the format.
+   */
+  public void setFormat(DatasetFormat format) {
+    if (format == null) {
+      throw new IllegalArgumentException("Given format is null");
+    }
+    this.format = format;
+  }
+
+  /**
+   * Sets the seed of the random generators of the files built from now on. Unless it is set, the
+   * seed is chosen at random when the utility is created.
+   *
+   * @param seed the seed.
+   */
+  public void setSeed(long seed) {
+    this.seed = seed;
+  }
+
+  /**
+   * Gets the seed of the random generators, to build the same files again.
+   *
+   * @return the seed.
+   */
+  public long getSeed() {
+    return this.seed;
+  }
+
+  /**
+   * Sets the number of threads generating the files. It does not change their content.
+   *
+   * @param numThreads the number of threads.
+   */
+  public void setNumThreads(int numThreads) {
+    if (numThreads < 1) {
+      throw new IllegalArgumentException("The number of threads has to be bigger than 0");
+    }
+    this.numThreads = numThreads;
+  }
+
+  /**
+   * Sets the time window the datetimes of the generated tweets are uniformly drawn from.
+   *
+   * @param start the start of the window in milliseconds from epoch, included.
+   * @param end the end of the window in milliseconds from epoch, excluded.
+   */
+  public void setTimeWindow(long start, long end) {
+    if (start >= end) {
+      throw new IllegalArgumentException("The start of the window has to be before its end");
+    }
+    this.windowStart = start;
+    this.windowEnd = end;
+  }
+
+  /**
+   * Sets the Zipf exponent of the authors of the generated tweets, 0 for uniformly drawn
+   * authors. Around 1 a few users write most of the tweets.
+   *
+   * @param exponent the exponent.
+   */
+  public void setAuthorSkew(double exponent) {
+    if (exponent < 0) {
+      throw new IllegalArgumentException("The skew has to be non negative");
+    }
+    this.authorSkew = exponent;
+  }
+
+  /**
+   * Sets the Zipf exponent of the followees of the generated follow relations, 0 for uniformly
+   * drawn followees. Every user still follows the same number of users, but the number of
+   * followers of a user becomes power-law distributed: around 1 a few users are followed by a
+   * large part of the network.
+   *
+   * @param exponent the exponent.
+   */
+  public void setFollowerSkew(double exponent) {
+    if (exponent < 0) {
+      throw new IllegalArgumentException("The skew has to be non negative");
+    }
+    this.followerSkew = exponent;
+  }
+
   /**
    * Builds a list of of tweets of a given size.
-   * The userId of the tweet is randomly generated and the value
-   * ranges from 1 to a given upper bound.
-   * The datetime is generated using the {@code generateDT} function.
-   * The message are randomly generated.
+   * The userId of the tweet is randomly generated, uniformly or with the author skew, and the
+   * value ranges from 1 to a given upper bound.
+   * The datetime is drawn from the time window.
+   * The message are randomly generated alphanumeric strings.
    * The result is written to a given filePath.
    *
-   * NOTE: Years must be >= 1000.
-   *
    * @param numTweets the number of tweets to be generated.
-   * @param numUsers the range of user ids that will appear in the resulting list (from 0).
+   * @param numUsers the range of user ids that will appear in the resulting list (from 1).
    * @param toFilePath the path of the file to save the result to.
    */
   public void buildTweets(long numTweets, int numUsers, String toFilePath) {
@@ -46,29 +185,24 @@ public class TwitterUtil {
     if (toFilePath == null) {
       throw new IllegalArgumentException("Given messages or toFilePath is null");
     }
-    JsonWriter writer = null;
-    try {
-      writer = new JsonWriter(new FileWriter(toFilePath));
-      writer.setIndent("    ");
-      writer.beginArray();
-      Random userIdRandomizer = new Random();
-      for (int i = 0; i < numTweets; i++) {
-        String userId = String.valueOf(userIdRandomizer.nextInt(numUsers) + 1);
-        Calendar datetime = this.generateDT();
-        String message = RandomStringUtils.randomAlphanumeric(userIdRandomizer.nextInt(140));
-        Tweet t = new Tweet(userId, datetime, message);
-        this.writeMessage(writer, t);
+    long numBlocks = (numTweets + TWEETS_PER_BLOCK - 1) / TWEETS_PER_BLOCK;
+    ZipfDistribution authors = new ZipfDistribution(numUsers, this.authorSkew);
+    this.writeBlocks(toFilePath, numBlocks, (block, random, writer) -> {
+      long end = Math.min(numTweets, (block + 1) * TWEETS_PER_BLOCK);
+      for (long i = block * TWEETS_PER_BLOCK; i < end; i++) {
+        int author = this.authorSkew == 0 ? random.nextInt(numUsers) + 1 : authors.sample(random);
+        String userId = String.valueOf(author);
+        long datetime = this.windowStart + random.nextLong(this.windowEnd - this.windowStart);
+        String message = randomMessage(random, random.nextInt(140));
+        writer.writeTweet(new Tweet(userId, datetime, message));
       }
-      writer.endArray();
-      writer.close();
-    } catch (IOException e) {
-      e.printStackTrace();
-    }
+    });
   }
 
   /**
    * Builds a randomly generated list of pairs on the form of (follower, followed) and saves it
-   * as JSON to a given file path.
+   * to a given file path. With a follower skew, the followees of a user are distinct and drawn
+   * from a Zipf distribution.
    *
    * @param fromUser the lower bound from which user id starts.
    * @param toUser the upper bound to which user id go.
@@ -76,36 +210,180 @@ public class TwitterUtil {
    * @param filePath the file path to which to save the list.
    */
   public void buildFollowTable(int fromUser, int toUser, int numFollowee, String filePath) {
-    if (fromUser > toUser) {
-      throw new IllegalArgumentException("The from user id is bigger than the to user id");
+    if (fromUser >= toUser) {
+      throw new IllegalArgumentException("The from user id is not smaller than the to user id");
     }
     if (numFollowee < 1) {
       throw new IllegalArgumentException("The number of followee per person has to be positive");
     }
-    JsonWriter writer = null;
-    try {
-      writer = new JsonWriter(new FileWriter(filePath));
-      writer.setIndent("    ");
-      writer.beginArray();
-      Random userId = new Random();
-      for (int i = fromUser; i <= toUser; i++) {
+    long numUsers = (long) toUser - fromUser + 1;
+    if (this.followerSkew > 0 && numFollowee >= numUsers) {
+      throw new IllegalArgumentException("Users cannot follow that many distinct users");
+    }
+    long numBlocks = (numUsers + USERS_PER_BLOCK - 1) / USERS_PER_BLOCK;
+    ZipfDistribution followees = new ZipfDistribution((int) numUsers, this.followerSkew);
+    this.writeBlocks(filePath, numBlocks, (block, random, writer) -> {
+      long end = Math.min(toUser, fromUser + (block + 1) * USERS_PER_BLOCK - 1);
+      for (long i = fromUser + block * USERS_PER_BLOCK; i <= end; i++) {
+        if (this.followerSkew > 0) {
+          Set<Long> followed = new HashSet<>();
+          while (followed.size() < numFollowee) {
+            long follows = fromUser + followees.sample(random) - 1;
+            if (follows != i && followed.add(follows)) {
+              writer.writeFollower(String.valueOf(i), String.valueOf(follows));
+            }
+          }
+          continue;
+        }
         int counter = numFollowee;
         while (counter > 0) {
-          int follows = userId.nextInt(toUser - fromUser + 1) + fromUser;
+          long follows = fromUser + random.nextLong(numUsers);
           if (follows != i) {
-            writer.beginObject();
-            writer.name("user_id").value(i);
-            writer.name("follows_id").value(follows);
-            writer.endObject();
+            writer.writeFollower(String.valueOf(i), String.valueOf(follows));
             counter--;
           }
         }
       }
-      writer.endArray();
-      writer.close();
+    });
+  }
+
+  /**
+   * Generates the records of one block of a dataset.
+   */
+  private interface BlockGenerator {
+
+    /**
+     * Generates the records of a block.
+     *
+     * @param block the index of the block.
+     * @param random the random generator of the block.
+     * @param writer the writer to write the records with.
+     * @throws IOException if the writer is unable to write.
+     */
+    void generate(long block, SplittableRandom random, DatasetWriter writer) throws IOException;
+  }
+
+  /**
+   * Writes a dataset generated in blocks to a given file, in the current format.
+   *
+   * @param filePath the path of the file to write to.
+   * @param numBlocks the number of blocks.
+   * @param generator generates the records of a block.
+   */
+  private void writeBlocks(String filePath, long numBlocks, BlockGenerator generator) {
+    SplittableRandom root = new SplittableRandom(this.seed);
+    if (this.format == DatasetFormat.JSON) {
+      try (DatasetWriter writer = new DatasetWriter(filePath, this.format)) {
+        for (long block = 0; block < numBlocks; block++) {
+          generator.generate(block, root.split(), writer);
+        }
+      } catch (IOException e) {
+        e.printStackTrace();
+      }
+      return;
+    }
+    ExecutorService executor = Executors.newFixedThreadPool(this.numThreads);
+    try (FileChannel channel = FileChannel.open(Paths.get(filePath), StandardOpenOption.CREATE,
+        StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+      List<Future<?>> tasks = new ArrayList<>();
+      CompletableFuture<Long> offset = CompletableFuture.completedFuture(0L);
+      for (long block = 0; block < numBlocks; block++) {
+        long index = block;
+        SplittableRandom random = root.split();
+        CompletableFuture<Long> start = offset;
+        CompletableFuture<Long> next = new CompletableFuture<>();
+        tasks.add(executor.submit(() -> {
+          try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (DatasetWriter writer = new DatasetWriter(bytes, this.format, index > 0)) {
+              generator.generate(index, random, writer);
+            }
+            // Blocks are started in order, so the one before is already being generated
+            long position = start.get();
+            next.complete(position + bytes.size());
+            ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+            while (buffer.hasRemaining()) {
+              position += channel.write(buffer, position);
+            }
+          } catch (Exception e) {
+            next.completeExceptionally(e);
+            throw e;
+          }
+          return null;
+        }));
+        offset = next;
+      }
+      for (Future<?> task : tasks) {
+        task.get();
+      }
+    } catch (IOException | ExecutionException e) {
+      e.printStackTrace();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while writing " + filePath);
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  /**
+   * Generates a random alphanumeric message.
+   *
+   * @param random the random generator.
+   * @param length the length of the message.
+   * @return the message.
+   */
+  private static String randomMessage(SplittableRandom random, int length) {
+    char[] message = new char[length];
+    for (int i = 0; i < length; i++) {
+      message[i] = ALPHANUMERIC[random.nextInt(ALPHANUMERIC.length)];
+    }
+    return new String(message);
+  }
+
+  /**
+   * Converts a file of tweets into a given format, e.g. 'tweets.json' into a binary file.
+   *
+   * @param fromFilePath the path of the file to be read, in any format.
+   * @param toFilePath the path of the file to write to.
+   * @param toFormat the format of the written file.
+   * @return the number of tweets converted.
+   */
+  public long convertTweets(String fromFilePath, String toFilePath, DatasetFormat toFormat) {
+    long counter = 0;
+    try (DatasetReader reader = new DatasetReader(fromFilePath);
+        DatasetWriter writer = new DatasetWriter(toFilePath, toFormat)) {
+      for (Tweet t = reader.nextTweet(); t != null; t = reader.nextTweet()) {
+        writer.writeTweet(t);
+        counter++;
+      }
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
+    return counter;
+  }
+
+  /**
+   * Converts a file of follower-followee relations into a given format, e.g. 'follows.json' into
+   * a binary file.
+   *
+   * @param fromFilePath the path of the file to be read, in any format.
+   * @param toFilePath the path of the file to write to.
+   * @param toFormat the format of the written file.
+   * @return the number of relations converted.
+   */
+  public long convertFollowers(String fromFilePath, String toFilePath, DatasetFormat toFormat) {
+    long counter = 0;
+    try (DatasetReader reader = new DatasetReader(fromFilePath);
+        DatasetWriter writer = new DatasetWriter(toFilePath, toFormat)) {
+      for (String[] pair = reader.nextFollower(); pair != null; pair = reader.nextFollower()) {
+        writer.writeFollower(pair[0], pair[1]);
+        counter++;
+      }
     } catch (IOException e) {
       e.printStackTrace();
     }
+    return counter;
   }
 
   /**
@@ -140,11 +418,12 @@ public class TwitterUtil {
     long counter = numOfHomeTM;
     try {
       start = System.currentTimeMillis();
-      JsonReader reader = new JsonReader(new FileReader(filePath));
-      reader.beginArray();
-      while (reader.hasNext() && counter > 0) {
-        tweets.add(this.readTweet(reader));
+      DatasetReader reader = new DatasetReader(filePath);
+      Tweet t = reader.nextTweet();
+      while (t != null && counter > 0) {
+        tweets.add(t);
         counter--;
+        t = reader.nextTweet();
       }
       reader.close();
       end = System.currentTimeMillis();
@@ -157,67 +436,23 @@ public class TwitterUtil {
   }
 
   /**
-   * Helps read a single tweet and from JSON file.
+   * Computes the speed of parsing all the tweets of a file with a given number of threads, each
+   * one reading its own part of a newline-delimited or binary file.
    *
-   * @param reader the {@link JsonReader} to read the tweet from.
-   * @return the Tweet read.
-   * @throws IOException if is it unable to read from the reader.
+   * @param filePath the path to the file to be read.
+   * @param parallelism the number of threads.
+   * @return the number of tweets parsed per second.
    */
-  private Tweet readTweet(JsonReader reader) throws IOException {
-    String userId = null;
-    long datetime = -1;
-    String message = null;
-    reader.beginObject();
-    while (reader.hasNext()) {
-      String name = reader.nextName();
-      if (name.equals("user_id")) {
-        userId = reader.nextString();
-      }
-      else if (name.equals("datetime")) {
-        datetime = reader.nextLong();
-      }
-      else if (name.equals("message")) {
-        message = reader.nextString();
-      }
-      else {
-        reader.skipValue();
-      }
-    }
-    reader.endObject();
-    if (userId == null || message == null || datetime == -1) {
-      throw new IllegalStateException("Missing data from current JsonReader");
+  public long getParseSpeed(String filePath, int parallelism) {
+    try {
+      long start = System.nanoTime();
+      int numTweets = DatasetReader.readTweets(filePath, parallelism).size();
+      long end = System.nanoTime();
+      return (long) (numTweets * 1e9 / (end - start));
+    } catch (IOException e) {
+      e.printStackTrace();
+      return 0;
     }
-    Calendar date = Calendar.getInstance();
-    date.setTime(new Date(datetime));
-    return new Tweet(userId, date, message);
-  }
-
-  /**
-   * Generates a random {@link Calendar} using a random long value.
-   *
-   * @return the Date.
-   */
-  private Calendar generateDT() {
-    Random r = new Random();
-    Calendar c = Calendar.getInstance();
-    c.setTime(new Date(r.nextLong()));
-    return c;
-  }
-
-  /**
-   * Writes a given tweet to a given {@link JsonWriter}.
-   *
-   * @param writer the {@link JsonWriter}.
-   * @param tweet the tweet to be written.
-   * @throws IOException if the given writer is unable to write.
-   */
-  private void writeMessage(JsonWriter writer, Tweet tweet) throws IOException {
-    writer.beginObject();
-    writer.name("user_id").value(tweet.getUserId());
-    long date = tweet.getDatetime().getTime().getTime();
-    writer.name("datetime").value(date);
-    writer.name("message").value(tweet.getMessage());
-    writer.endObject();
   }
 
 }
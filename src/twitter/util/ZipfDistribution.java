@@ -0,0 +1,188 @@
+package twitter.util;
+
+import java.util.Random;
+import java.util.SplittableRandom;
+import java.util.function.DoubleSupplier;
+
+/**
+ * Represents a Zipf distribution over the ranks 1 to n, where rank k is drawn with a probability
+ * proportional to 1 / k^exponent. With an exponent of 0 every rank is equally likely; around 1
+ * a few ranks take most of the draws, as the most followed users of a social network do.
+ * Ranks are drawn with the rejection-inversion method of Hormann and Derflinger, which takes
+ * constant time and memory whatever the number of ranks, so millions of users need no table.
+ * This class is immutable and thread safe; the random generators given to {@code sample} are
+ * not shared by it.
+ */
+public class ZipfDistribution {
+
+  private final int numRanks;
+  private final double exponent;
+  private final double hIntegralX1;
+  private final double hIntegralNumRanks;
+  private final double squeeze;
+
+  /**
+   * Creates a Zipf distribution.
+   *
+   * @param numRanks the number of ranks.
+   * @param exponent the exponent, 0 for a uniform distribution.
+   */
+  public ZipfDistribution(int numRanks, double exponent) {
+    if (numRanks < 1) {
+      throw new IllegalArgumentException("The number of ranks has to be bigger than 0");
+    }
+    if (exponent < 0 || Double.isNaN(exponent) || Double.isInfinite(exponent)) {
+      throw new IllegalArgumentException("The exponent has to be a non negative number");
+    }
+    this.numRanks = numRanks;
+    this.exponent = exponent;
+    this.hIntegralX1 = this.hIntegral(1.5) - 1;
+    this.hIntegralNumRanks = this.hIntegral(numRanks + 0.5);
+    this.squeeze = 2 - this.hIntegralInverse(this.hIntegral(2.5) - this.h(2));
+  }
+
+  /**
+   * Gets the number of ranks.
+   *
+   * @return the number of ranks.
+   */
+  public int getNumRanks() {
+    return this.numRanks;
+  }
+
+  /**
+   * Gets the exponent.
+   *
+   * @return the exponent.
+   */
+  public double getExponent() {
+    return this.exponent;
+  }
+
+  /**
+   * Draws a rank.
+   *
+   * @param random the random generator to draw with.
+   * @return the rank, from 1 to the number of ranks.
+   */
+  public int sample(SplittableRandom random) {
+    return this.sample(random::nextDouble);
+  }
+
+  /**
+   * Draws a rank.
+   *
+   * @param random the random generator to draw with.
+   * @return the rank, from 1 to the number of ranks.
+   */
+  public int sample(Random random) {
+    return this.sample(random::nextDouble);
+  }
+
+  /**
+   * Maps a rank to another one spread over all the ranks, so that the most drawn ranks are no
+   * longer the lowest ones. This lets a second skewed population, such as the most active readers,
+   * differ from the users at the lowest ranks. The mapping is a permutation of the ranks, since
+   * its multiplier is a prime bigger than any number of ranks.
+   *
+   * @param rank the rank, from 1 to the number of ranks.
+   * @return the scattered rank, from 1 to the number of ranks.
+   */
+  public int scatter(int rank) {
+    if (rank < 1 || rank > this.numRanks) {
+      throw new IllegalArgumentException("The rank has to be between 1 and the number of ranks");
+    }
+    return (int) (rank * 2654435761L % this.numRanks) + 1;
+  }
+
+  /**
+   * Draws a rank from uniform values in [0, 1).
+   *
+   * @param uniform gives the uniform values.
+   * @return the rank, from 1 to the number of ranks.
+   */
+  private int sample(DoubleSupplier uniform) {
+    if (this.exponent == 0) {
+      return (int) (uniform.getAsDouble() * this.numRanks) + 1;
+    }
+    while (true) {
+      double u = this.hIntegralNumRanks
+          + uniform.getAsDouble() * (this.hIntegralX1 - this.hIntegralNumRanks);
+      double x = this.hIntegralInverse(u);
+      int k = (int) (x + 0.5);
+      if (k < 1) {
+        k = 1;
+      }
+      else if (k > this.numRanks) {
+        k = this.numRanks;
+      }
+      // Most draws are accepted by the squeeze, without evaluating the integral again
+      if (k - x <= this.squeeze || u >= this.hIntegral(k + 0.5) - this.h(k)) {
+        return k;
+      }
+    }
+  }
+
+  /**
+   * Computes the integral of {@code h} from 1 to a given value, shifted so that it is continuous
+   * for every exponent.
+   *
+   * @param x the value.
+   * @return the integral.
+   */
+  private double hIntegral(double x) {
+    double logX = Math.log(x);
+    return helper2((1 - this.exponent) * logX) * logX;
+  }
+
+  /**
+   * Computes the unnormalized density 1 / x^exponent.
+   *
+   * @param x the value.
+   * @return the density.
+   */
+  private double h(double x) {
+    return Math.exp(-this.exponent * Math.log(x));
+  }
+
+  /**
+   * Computes the inverse of {@code hIntegral}.
+   *
+   * @param x the integral.
+   * @return the value whose integral it is.
+   */
+  private double hIntegralInverse(double x) {
+    double t = x * (1 - this.exponent);
+    if (t < -1) {
+      // Limits rounding errors near the upper end of the ranks
+      t = -1;
+    }
+    return Math.exp(helper1(t) * x);
+  }
+
+  /**
+   * Computes log(1 + x) / x, accurately also for values of x near 0.
+   *
+   * @param x the value.
+   * @return the result.
+   */
+  private static double helper1(double x) {
+    if (Math.abs(x) > 1e-8) {
+      return Math.log1p(x) / x;
+    }
+    return 1 - x * (0.5 - x * (1.0 / 3 - 0.25 * x));
+  }
+
+  /**
+   * Computes (e^x - 1) / x, accurately also for values of x near 0.
+   *
+   * @param x the value.
+   * @return the result.
+   */
+  private static double helper2(double x) {
+    if (Math.abs(x) > 1e-8) {
+      return Math.expm1(x) / x;
+    }
+    return 1 + x * 0.5 * (1 + x * 1.0 / 3 * (1 + 0.25 * x));
+  }
+}